@@ -0,0 +1,23 @@
+package com.example.android.petsshelter;
+
+import android.app.Application;
+
+import com.example.android.petsshelter.debug.DebugInstrumentation;
+import com.example.android.petsshelter.maintenance.MaintenanceScheduler;
+
+/**
+ * Application class, sets up the process wide state before any component is created.
+ */
+public class PetsShelterApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Catch I/O on the main thread in debug builds.
+        DebugInstrumentation.install();
+
+        // Keep the planner statistics fresh, and the database checked while the device is idle.
+        MaintenanceScheduler.schedule(this);
+    }
+}
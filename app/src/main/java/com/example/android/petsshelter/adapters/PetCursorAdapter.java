@@ -7,18 +7,33 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
 import com.example.android.petsshelter.R;
 
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
 import static com.example.android.petsshelter.data.PetContract.PetEntry;
 
 /**
  * {@link PetCursorAdapter} is an adapter for a list or grid view
  * that uses a {@link Cursor} of pet data as its data source. This adapter knows
  * how to create list items for each row of pet data in the {@link Cursor}.
+ * <p>
+ * It also indexes the pets sorted by name for the fast scroller, from the sections given by
+ * {@link #setSections(Cursor)}.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends CursorAdapter implements SectionIndexer {
+
+    private static final String[] NO_SECTIONS = {};
+
+    // Labels of the sections, and the position of the first pet of each one.
+    private String[] sections = NO_SECTIONS;
+    private int[] sectionPositions = new int[0];
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
@@ -70,7 +85,74 @@ public class PetCursorAdapter extends CursorAdapter {
         TextView petNameTV = view.findViewById(R.id.pet_name_tv);
         petNameTV.setText(petName);
 
+        // Null when the pet has no vaccination, or when the projection doesn't have it.
+        int lastVaccinationColumn = cursor.getColumnIndex(PetEntry.COL_LAST_VACCINATION);
+        String vaccination;
+        if (lastVaccinationColumn == -1 || cursor.isNull(lastVaccinationColumn)) {
+            vaccination = context.getString(R.string.not_vaccinated);
+        } else {
+            Date lastVaccination = new Date(cursor.getLong(lastVaccinationColumn));
+            vaccination = context.getString(R.string.last_vaccination,
+                    DateFormat.getDateInstance(DateFormat.MEDIUM).format(lastVaccination));
+        }
+
         TextView summaryTV = view.findViewById(R.id.pet_summary_tv);
-        summaryTV.setText(petBreed);
+        summaryTV.setText(context.getString(R.string.pet_summary, petBreed, vaccination));
+    }
+
+    /**
+     * Set the sections of the pets, as returned by the sections URI of the shelter (see
+     * {@link PetEntry#buildShelterSectionsUri(long)}), or null to drop them.
+     */
+    public void setSections(Cursor sectionsCursor) {
+        if (sectionsCursor == null) {
+            sections = NO_SECTIONS;
+            sectionPositions = new int[0];
+        } else {
+            int sectionColumn = sectionsCursor.getColumnIndexOrThrow(PetEntry.COL_SECTION);
+            int countColumn = sectionsCursor.getColumnIndexOrThrow(PetEntry.COL_SECTION_COUNT);
+
+            sections = new String[sectionsCursor.getCount()];
+            sectionPositions = new int[sections.length];
+            int position = 0;
+            sectionsCursor.moveToPosition(-1);
+            for (int i = 0; sectionsCursor.moveToNext(); i++) {
+                sections[i] = sectionsCursor.getString(sectionColumn)
+                        .toUpperCase(Locale.getDefault());
+                sectionPositions[i] = position;
+                position += sectionsCursor.getInt(countColumn);
+            }
+        }
+
+        // Lets the fast scroller pick up the new sections.
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public Object[] getSections() {
+        return sections;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        if (sectionPositions.length == 0) {
+            return 0;
+        }
+        int section = Math.max(0, Math.min(sectionIndex, sectionPositions.length - 1));
+
+        /* The list and the sections are loaded separately, the list may be shorter for a
+         * moment after a change. */
+        return Math.min(sectionPositions[section], Math.max(0, getCount() - 1));
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        if (sectionPositions.length == 0) {
+            return 0;
+        }
+
+        int index = Arrays.binarySearch(sectionPositions, position);
+        // Not a first position: the section is the one before the insertion point.
+        return index >= 0 ? index : Math.max(0, -index - 2);
     }
 }
@@ -0,0 +1,118 @@
+package com.example.android.petsshelter.benchmark;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.petsshelter.data.PetColumnarSnapshot;
+import com.example.android.petsshelter.data.PetContract;
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+import java.util.Locale;
+
+/**
+ * Compares filter/count/average queries answered by SQL through {@link ContentResolver} with the
+ * same queries answered by the {@link PetColumnarSnapshot}.
+ * <p>
+ * This must not be run on the main thread.
+ */
+public final class ColumnarSnapshotBenchmark {
+
+    private static final String TAG = ColumnarSnapshotBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 50;
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private ColumnarSnapshotBenchmark() {
+    }
+
+    /**
+     * Run the benchmark against the current content of the pets table and return a readable
+     * summary of the results. The summary is also written to the log.
+     */
+    public static String run(Context context) {
+        ContentResolver resolver = context.getContentResolver();
+
+        PetColumnarSnapshot snapshot = PetColumnarSnapshot.getInstance();
+        boolean wasEnabled = snapshot.isEnabled();
+        if (!wasEnabled) {
+            resolver.call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_ENABLE_COLUMNAR_SNAPSHOT, null, null);
+        }
+
+        // The repeated queries must go to SQLite, not to the query cache.
+        Bundle cacheState = resolver.call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_DISABLE_QUERY_CACHE, null, null);
+
+        long checksum = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            checksum += runSql(resolver, i % 3);
+            checksum += runSnapshot(snapshot, i % 3);
+        }
+
+        long sqlStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += runSql(resolver, i % 3);
+        }
+        long sqlNanos = System.nanoTime() - sqlStart;
+
+        long snapshotStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += runSnapshot(snapshot, i % 3);
+        }
+        long snapshotNanos = System.nanoTime() - snapshotStart;
+
+        int petCount = snapshot.count();
+        if (!wasEnabled) {
+            resolver.call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_DISABLE_COLUMNAR_SNAPSHOT, null, null);
+        }
+        if (cacheState != null && cacheState.getBoolean(PetContract.KEY_CACHE_WAS_ENABLED)) {
+            resolver.call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_ENABLE_QUERY_CACHE, null, null);
+        }
+
+        String summary = String.format(Locale.US,
+                "%d pets, count+average by gender: sql %.1f us/op, snapshot %.1f us/op (%.1fx)",
+                petCount,
+                sqlNanos / 1000.0 / ITERATIONS,
+                snapshotNanos / 1000.0 / ITERATIONS,
+                snapshotNanos == 0 ? 0 : (double) sqlNanos / snapshotNanos);
+        Log.i(TAG, summary + " [checksum " + checksum + "]");
+
+        return summary;
+    }
+
+    private static long runSql(ContentResolver resolver, int gender) {
+        String[] projection = {
+                "COUNT(*)",
+                "AVG(" + PetEntry.COL_PET_WEIGHT + ")"
+        };
+
+        Cursor cursor = resolver.query(
+                PetEntry.CONTENT_URI,
+                projection,
+                PetEntry.COL_PET_GENDER + "=?",
+                new String[]{String.valueOf(gender)},
+                null);
+        if (cursor == null) {
+            return 0;
+        }
+
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) + (long) cursor.getDouble(1) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long runSnapshot(PetColumnarSnapshot snapshot, int gender) {
+        return snapshot.countByGender(gender) + (long) snapshot.averageWeightByGender(gender);
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.android.petsshelter.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.petsshelter.data.PetContract;
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.data.PetDataGenerator;
+import com.example.android.petsshelter.data.PetDbProfile;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs the provider workloads (inserts, catalog list, sections, statistics, updates and
+ * duplicate lookups) under each {@link PetDbProfile}, and reports the throughput and latency of
+ * each workload and the resident memory of the process.
+ * <p>
+ * The workloads write the pets of a dedicated shelter, which is emptied before and after each
+ * profile. The profile selected before the run is selected again at the end. The query cache is
+ * disabled during the run, the repeated queries go to SQLite. This must not be run on the main
+ * thread.
+ */
+public final class DbProfileBenchmark {
+
+    private static final String TAG = DbProfileBenchmark.class.getSimpleName();
+
+    // The shelter of the benchmark pets, far from the shelters in use.
+    private static final long BENCHMARK_SHELTER_ID = 999999;
+
+    private static final long SEED = 42;
+
+    // Pets bulk inserted before the read workloads.
+    private static final int BULK_PET_COUNT = 5000;
+
+    // Operations of each per operation workload.
+    private static final int SINGLE_INSERT_COUNT = 200;
+    private static final int QUERY_COUNT = 20;
+    private static final int UPDATE_COUNT = 200;
+    private static final int LOOKUP_COUNT = 200;
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private DbProfileBenchmark() {
+    }
+
+    /**
+     * Run every workload under every profile and return a readable report, one line per
+     * workload. The report is also written to the log.
+     */
+    public static String run(Context context) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri shelterUri = PetEntry.buildShelterUri(BENCHMARK_SHELTER_ID);
+        PetDbProfile previous = PetDbProfile.getSelected(context);
+        Bundle cacheState = resolver.call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_DISABLE_QUERY_CACHE, null, null);
+
+        StringBuilder report = new StringBuilder();
+        try {
+            for (PetDbProfile profile : PetDbProfile.ALL) {
+                Bundle result = resolver.call(PetEntry.CONTENT_URI,
+                        PetContract.METHOD_SET_DB_PROFILE, profile.getName(), null);
+                String settings = result == null ? profile.getName()
+                        : result.getString(PetContract.KEY_DB_PROFILE_SETTINGS);
+                appendLine(report, settings);
+
+                resolver.delete(shelterUri, null, null);
+                runWorkloads(resolver, shelterUri, report);
+                resolver.delete(shelterUri, null, null);
+
+                appendLine(report, String.format(Locale.US, "  rss %d KiB", readRssKib()));
+            }
+        } finally {
+            resolver.call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_SET_DB_PROFILE, previous.getName(), null);
+            if (cacheState != null && cacheState.getBoolean(PetContract.KEY_CACHE_WAS_ENABLED)) {
+                resolver.call(PetEntry.CONTENT_URI,
+                        PetContract.METHOD_ENABLE_QUERY_CACHE, null, null);
+            }
+        }
+
+        Log.i(TAG, "run:\n" + report);
+        return report.toString();
+    }
+
+    private static void runWorkloads(ContentResolver resolver, Uri shelterUri,
+                                     StringBuilder report) {
+        PetDataGenerator generator = new PetDataGenerator(SEED);
+
+        // Bulk insert: a single operation, reported per pet.
+        long start = System.nanoTime();
+        int inserted = generator.insert(resolver, shelterUri, BULK_PET_COUNT);
+        long bulkNanos = System.nanoTime() - start;
+        appendLine(report, String.format(Locale.US, "  bulk insert: %d pets, %.0f pets/s",
+                inserted, inserted * 1e9 / Math.max(1, bulkNanos)));
+
+        long[] ids = new long[SINGLE_INSERT_COUNT];
+        long[] nanos = new long[SINGLE_INSERT_COUNT];
+        for (int i = 0; i < SINGLE_INSERT_COUNT; i++) {
+            ContentValues values = generator.next();
+            start = System.nanoTime();
+            Uri petUri = resolver.insert(shelterUri, values);
+            nanos[i] = System.nanoTime() - start;
+            ids[i] = petUri == null ? -1 : ContentUris.parseId(petUri);
+        }
+        appendLatencies(report, "single insert", nanos);
+
+        String[] catalogProjection = {
+                PetEntry.COL_ID, PetEntry.COL_PET_NAME, PetEntry.COL_PET_BREED
+        };
+        nanos = new long[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            start = System.nanoTime();
+            readAll(resolver.query(shelterUri, catalogProjection, null, null,
+                    PetEntry.SORT_BY_NAME));
+            nanos[i] = System.nanoTime() - start;
+        }
+        appendLatencies(report, "catalog list", nanos);
+
+        Uri sectionsUri = PetEntry.buildShelterSectionsUri(BENCHMARK_SHELTER_ID);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            start = System.nanoTime();
+            readAll(resolver.query(sectionsUri, null, null, null, null));
+            nanos[i] = System.nanoTime() - start;
+        }
+        appendLatencies(report, "sections", nanos);
+
+        String[] statisticsProjection = {"COUNT(*)", "AVG(" + PetEntry.COL_PET_WEIGHT + ")"};
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            start = System.nanoTime();
+            readAll(resolver.query(shelterUri, statisticsProjection,
+                    PetEntry.COL_PET_GENDER + "=?", new String[]{String.valueOf(i % 3)},
+                    null));
+            nanos[i] = System.nanoTime() - start;
+        }
+        appendLatencies(report, "count+average by gender", nanos);
+
+        nanos = new long[UPDATE_COUNT];
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COL_PET_WEIGHT, 1 + i % 40);
+            start = System.nanoTime();
+            resolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                    ids[i % ids.length]), values, null, null);
+            nanos[i] = System.nanoTime() - start;
+        }
+        appendLatencies(report, "update weight", nanos);
+
+        nanos = new long[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            Bundle extras = new Bundle();
+            extras.putParcelable(PetContract.EXTRA_VALUES, generator.next());
+            start = System.nanoTime();
+            resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_FIND_DUPLICATES, null,
+                    extras);
+            nanos[i] = System.nanoTime() - start;
+        }
+        appendLatencies(report, "find duplicates", nanos);
+    }
+
+    /**
+     * Read every row of the cursor, which fills its window, then close it.
+     */
+    private static void readAll(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Append the throughput, median and 95th percentile latencies of the given operations.
+     */
+    private static void appendLatencies(StringBuilder report, String workload, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long n : sorted) {
+            total += n;
+        }
+
+        appendLine(report, String.format(Locale.US,
+                "  %s: %.0f ops/s, p50 %.2f ms, p95 %.2f ms",
+                workload,
+                sorted.length * 1e9 / Math.max(1, total),
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) Math.min(sorted.length - 1, sorted.length * 95L / 100)] / 1e6));
+    }
+
+    private static void appendLine(StringBuilder report, String line) {
+        if (report.length() > 0) {
+            report.append('\n');
+        }
+        report.append(line);
+    }
+
+    /**
+     * Returns the resident set size of this process, which hosts the provider, or -1 if it
+     * can't be read.
+     */
+    private static long readRssKib() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // e.g. "VmRSS:     81234 kB"
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "readRssKib: cannot read the RSS", e);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.petsshelter.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+/**
+ * Remembers the shelter the app is working on. The catalog shows, and the editor adds, the pets
+ * of this shelter only.
+ */
+public final class ActiveShelter {
+
+    private static final String PREFS_NAME = "active_shelter";
+    private static final String KEY_SHELTER_ID = "shelter_id";
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private ActiveShelter() {
+    }
+
+    /**
+     * Returns the ID of the active shelter, {@link PetEntry#DEFAULT_SHELTER_ID} until another
+     * one is picked.
+     */
+    public static long getId(Context context) {
+        return getPreferences(context).getLong(KEY_SHELTER_ID, PetEntry.DEFAULT_SHELTER_ID);
+    }
+
+    /**
+     * Make the given shelter the active one.
+     */
+    public static void setId(Context context, long shelterId) {
+        if (shelterId <= 0) {
+            throw new IllegalArgumentException("Invalid shelter " + shelterId);
+        }
+        getPreferences(context).edit().putLong(KEY_SHELTER_ID, shelterId).apply();
+    }
+
+    /**
+     * Returns the content URI of the pets of the active shelter.
+     */
+    public static Uri getUri(Context context) {
+        return PetEntry.buildShelterUri(getId(context));
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
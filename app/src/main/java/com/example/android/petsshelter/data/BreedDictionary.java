@@ -0,0 +1,115 @@
+package com.example.android.petsshelter.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.petsshelter.data.PetContract.BreedEntry;
+
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Dictionary encoding of the breeds: each distinct breed is stored once in the breeds table,
+ * the pets refer to it by ID.
+ * <p>
+ * Breed names are canonicalized (trimmed, inner white space collapsed) and compared ignoring
+ * the case of the ASCII letters, like the NOCASE collation of the breeds table, so
+ * "golden  retriever " and "Golden Retriever" are the same breed, named after the
+ * first spelling that was stored. Resolved breeds are interned in memory, so resolving a known
+ * breed doesn't touch the database.
+ */
+class BreedDictionary {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // The name column compares ignoring case, this finds any spelling of a breed.
+    static final String SELECTION_BY_NAME = BreedEntry.COL_BREED_NAME + "=?";
+
+    // Breed IDs by canonical name, see keyOf().
+    private final HashMap<String, Long> idsByKey = new HashMap<>();
+
+    // Stored breed names by ID.
+    private final HashMap<Long, String> namesById = new HashMap<>();
+
+    /**
+     * Returns the canonical form of the given breed name, or null if it is empty.
+     */
+    static String canonicalize(String breed) {
+        if (breed == null) {
+            return null;
+        }
+        String canonical = WHITESPACE.matcher(breed.trim()).replaceAll(" ");
+        return canonical.isEmpty() ? null : canonical;
+    }
+
+    /**
+     * Returns the key of a canonical name in memory: only the ASCII letters are folded to lower
+     * case, NOCASE leaves the other letters as they are.
+     */
+    static String keyOf(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] = (char) (chars[i] + ('a' - 'A'));
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the ID of the given breed, adding it to the breeds table if it is new, or null if
+     * the name is empty (no breed).
+     */
+    synchronized Long resolve(SQLiteDatabase db, String breed) {
+        String name = canonicalize(breed);
+        if (name == null) {
+            return null;
+        }
+
+        String key = keyOf(name);
+        Long id = idsByKey.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        Cursor cursor = db.query(BreedEntry.TABLE_NAME,
+                new String[]{BreedEntry.COL_ID, BreedEntry.COL_BREED_NAME},
+                SELECTION_BY_NAME, new String[]{name},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+                name = cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (id == null) {
+            ContentValues values = new ContentValues();
+            values.put(BreedEntry.COL_BREED_NAME, name);
+            id = db.insertOrThrow(BreedEntry.TABLE_NAME, null, values);
+        }
+
+        idsByKey.put(key, id);
+        namesById.put(id, name);
+        return id;
+    }
+
+    /**
+     * Returns the stored name of a breed resolved by {@link #resolve(SQLiteDatabase, String)}.
+     */
+    synchronized String getName(long id) {
+        return namesById.get(id);
+    }
+
+    /**
+     * Forget all the resolved breeds. Must be called when a transaction that may have added
+     * breeds is rolled back, or when the database is replaced.
+     */
+    synchronized void clear() {
+        idsByKey.clear();
+        namesById.clear();
+    }
+}
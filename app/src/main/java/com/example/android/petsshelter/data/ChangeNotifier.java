@@ -0,0 +1,98 @@
+package com.example.android.petsshelter.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Coalesces the change notifications sent by {@link PetProvider}.
+ * <p>
+ * Instead of notifying the observers right after every write, the URIs that changed are
+ * collected for a short window and each one of them is notified once when the window ends.
+ * A burst of writes (e.g. an import) then triggers a handful of reloads instead of one per row.
+ */
+class ChangeNotifier {
+
+    private final ContentResolver contentResolver;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // URIs that changed during the current window, in the order they were first reported.
+    private final LinkedHashSet<Uri> pendingUris = new LinkedHashSet<>();
+
+    private long windowMillis;
+
+    private boolean flushScheduled = false;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param windowMillis How long to collect notifications before sending them, 0 sends every
+     *                     notification right away.
+     */
+    ChangeNotifier(ContentResolver contentResolver, long windowMillis) {
+        this.contentResolver = contentResolver;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Change the coalescing window. Notifications that are already pending are not affected.
+     */
+    synchronized void setWindowMillis(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Invalid window " + windowMillis);
+        }
+        this.windowMillis = windowMillis;
+    }
+
+    synchronized long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Report a change of the data at the given URI.
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            if (windowMillis > 0) {
+                pendingUris.add(uri);
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    handler.postDelayed(flushRunnable, windowMillis);
+                }
+                return;
+            }
+        }
+
+        contentResolver.notifyChange(uri, null);
+    }
+
+    /**
+     * Send the pending notifications right away.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+
+            uris = new ArrayList<>(pendingUris);
+            pendingUris.clear();
+        }
+
+        // Notify outside the lock, observers may query the provider right away.
+        for (Uri uri : uris) {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.petsshelter.data;
+
+import android.database.Cursor;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+/**
+ * An immutable pet, as read from {@link PetProvider}.
+ * <p>
+ * Columns that were not part of the query projection keep their default value (null for the
+ * text columns, 0 for the others).
+ */
+public final class Pet {
+
+    private final long id;
+    private final String name;
+    private final String breed;
+    private final int gender;
+    private final int weight;
+    private final int status;
+
+    public Pet(long id, String name, String breed, int gender, int weight, int status) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.status = status;
+    }
+
+    /**
+     * Read the pet at the current position of the given cursor.
+     */
+    public static Pet fromCursor(Cursor cursor) {
+        return new Pet(
+                getLong(cursor, PetEntry.COL_ID),
+                getString(cursor, PetEntry.COL_PET_NAME),
+                getString(cursor, PetEntry.COL_PET_BREED),
+                (int) getLong(cursor, PetEntry.COL_PET_GENDER),
+                (int) getLong(cursor, PetEntry.COL_PET_WEIGHT),
+                (int) getLong(cursor, PetEntry.COL_PET_STATUS));
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBreed() {
+        return breed;
+    }
+
+    public int getGender() {
+        return gender;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index == -1 || cursor.isNull(index) ? 0 : cursor.getLong(index);
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index == -1 ? null : cursor.getString(index);
+    }
+}
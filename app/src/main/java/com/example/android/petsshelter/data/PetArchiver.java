@@ -0,0 +1,123 @@
+package com.example.android.petsshelter.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.data.PetContract.RecordEntry;
+
+/**
+ * Moves the adopted pets from the main pets table to the archive table, in batches.
+ * <p>
+ * Each batch is its own short transaction, so the writes of the app are never blocked for
+ * long while a large backlog of adopted pets is being archived.
+ */
+class PetArchiver {
+
+    private static final String TAG = PetArchiver.class.getSimpleName();
+
+    // Number of pets moved per transaction.
+    static final int BATCH_SIZE = 500;
+
+    // The selection of the pets to archive, the adopted status is the argument.
+    static final String SELECTION_ADOPTED = PetEntry.COL_PET_STATUS + "=?";
+
+    /* The columns copied to the archive, both tables have the same columns. */
+    private static final String COLUMNS = TextUtils.join(", ", new String[]{
+            PetEntry.COL_ID,
+            PetEntry.COL_PET_NAME,
+            PetEntry.COL_BREED_ID,
+            PetEntry.COL_PET_GENDER,
+            PetEntry.COL_PET_WEIGHT,
+            PetEntry.COL_PET_STATUS,
+            PetEntry.COL_SHELTER_ID,
+            PetEntry.COL_FINGERPRINT
+    });
+
+    /* The columns of the medical records copied to the archive. */
+    private static final String RECORD_COLUMNS = TextUtils.join(", ", new String[]{
+            RecordEntry.COL_ID,
+            RecordEntry.COL_PET_ID,
+            RecordEntry.COL_DATE,
+            RecordEntry.COL_TYPE,
+            RecordEntry.COL_DESCRIPTION
+    });
+
+    private final PetColumnarSnapshot columnarSnapshot = PetColumnarSnapshot.getInstance();
+
+    /**
+     * Archive all the adopted pets.
+     *
+     * @return the number of archived pets.
+     */
+    int archiveAll(SQLiteDatabase db) {
+        int total = 0;
+        int moved;
+        do {
+            moved = archiveBatch(db);
+            total += moved;
+        } while (moved == BATCH_SIZE);
+
+        if (total > 0) {
+            Log.i(TAG, "archiveAll: archived " + total + " adopted pets");
+        }
+        return total;
+    }
+
+    /**
+     * Archive up to {@link #BATCH_SIZE} adopted pets in a single transaction.
+     *
+     * @return the number of archived pets.
+     */
+    int archiveBatch(SQLiteDatabase db) {
+        columnarSnapshot.beginTransaction(db);
+        try {
+            long[] ids = queryAdoptedIds(db);
+            if (ids.length == 0) {
+                return 0;
+            }
+
+            String[] args = new String[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                args[i] = String.valueOf(ids[i]);
+            }
+            String inIds = PetProvider.idsSelection(ids.length);
+
+            db.execSQL("INSERT INTO " + PetEntry.ARCHIVE_TABLE_NAME + " (" + COLUMNS + ") " +
+                    "SELECT " + COLUMNS + " FROM " + PetEntry.TABLE_NAME +
+                    " WHERE " + inIds, args);
+            // The medical records follow their pets, the delete cascades to the originals.
+            String inPetIds = RecordEntry.COL_PET_ID + " IN (" +
+                    PetProvider.makePlaceholders(ids.length) + ")";
+            db.execSQL("INSERT INTO " + RecordEntry.ARCHIVE_TABLE_NAME +
+                    " (" + RECORD_COLUMNS + ") " +
+                    "SELECT " + RECORD_COLUMNS + " FROM " + RecordEntry.TABLE_NAME +
+                    " WHERE " + inPetIds, args);
+            db.delete(PetEntry.TABLE_NAME, inIds, args);
+            columnarSnapshot.remove(ids);
+
+            db.setTransactionSuccessful();
+            return ids.length;
+        } finally {
+            columnarSnapshot.endTransaction(db);
+        }
+    }
+
+    private long[] queryAdoptedIds(SQLiteDatabase db) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[]{PetEntry.COL_ID},
+                SELECTION_ADOPTED, new String[]{String.valueOf(PetEntry.STATUS_ADOPTED)},
+                null, null, null, String.valueOf(BATCH_SIZE));
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
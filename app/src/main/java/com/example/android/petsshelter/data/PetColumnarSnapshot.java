@@ -0,0 +1,445 @@
+package com.example.android.petsshelter.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteTransactionListener;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An optional in-memory, column oriented copy of the pets table.
+ * <p>
+ * Only the columns that are filtered and aggregated most often are kept: the ID, gender and
+ * weight as primitive arrays, and the breed as an index into a dictionary of distinct breeds.
+ * Counting and averaging over these arrays is a tight loop that never goes through a
+ * {@link Cursor}.
+ * <p>
+ * The snapshot is disabled until {@link PetProvider} is asked to enable it, after that the
+ * provider keeps it up to date from its own write paths. The writes run in transactions begun
+ * with {@link #beginTransaction(SQLiteDatabase)}, their changes reach the snapshot only once
+ * the outermost transaction commits.
+ */
+public final class PetColumnarSnapshot {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Breed code used for rows without a breed.
+    public static final int NO_BREED = -1;
+
+    private static final PetColumnarSnapshot INSTANCE = new PetColumnarSnapshot();
+
+    private boolean enabled = false;
+
+    private int size = 0;
+
+    /* The columns. Rows are kept sorted by ID so that a row can be found with a binary search,
+     * new rows (which always get the largest ID) are simply appended. */
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int[] genders = new int[INITIAL_CAPACITY];
+    private int[] weights = new int[INITIAL_CAPACITY];
+    private int[] breedCodes = new int[INITIAL_CAPACITY];
+
+    /* Dictionary encoding for the breeds, the code of a breed is its index in the list. */
+    private final ArrayList<String> breeds = new ArrayList<>();
+    private final HashMap<String, Integer> breedCodesByName = new HashMap<>();
+
+    /* The changes made by the open transaction of each thread, null outside of a transaction
+     * begun with beginTransaction(). */
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<>();
+
+    private final SQLiteTransactionListener transactionListener =
+            new SQLiteTransactionListener() {
+                @Override
+                public void onBegin() {
+                    Transaction transaction = transactions.get();
+                    if (transaction == null) {
+                        transaction = new Transaction();
+                        transactions.set(transaction);
+                    }
+                    transaction.depth++;
+                }
+
+                @Override
+                public void onCommit() {
+                    transactions.get().depth--;
+                }
+
+                @Override
+                public void onRollback() {
+                    // A nested transaction that fails rolls the outermost one back.
+                    Transaction transaction = transactions.get();
+                    transaction.depth--;
+                    transaction.rolledBack = true;
+                }
+            };
+
+    /**
+     * The changes queued by the transaction of a thread.
+     */
+    private static final class Transaction {
+        int depth = 0;
+        boolean rolledBack = false;
+        final List<Runnable> changes = new ArrayList<>();
+    }
+
+    private PetColumnarSnapshot() {
+    }
+
+    /**
+     * Returns the process wide snapshot.
+     */
+    public static PetColumnarSnapshot getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replace the contents of the snapshot with the rows of the pets table and start accepting
+     * incremental updates.
+     */
+    synchronized void load(SQLiteDatabase db) {
+        clear();
+
+        String[] projection = {
+                PetEntry.COL_ID,
+                PetEntry.COL_PET_BREED,
+                PetEntry.COL_PET_GENDER,
+                PetEntry.COL_PET_WEIGHT
+        };
+
+        Cursor cursor = db.query(PetEntry.PETS_VIEW_NAME, projection,
+                null, null, null, null, PetEntry.COL_ID);
+        try {
+            ensureCapacity(cursor.getCount());
+            while (cursor.moveToNext()) {
+                String breed = cursor.isNull(1) ? null : cursor.getString(1);
+                append(cursor.getLong(0), encodeBreed(breed), cursor.getInt(2), cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        enabled = true;
+    }
+
+    /**
+     * Drop all the rows and stop accepting updates.
+     */
+    synchronized void disable() {
+        clear();
+        enabled = false;
+    }
+
+    /**
+     * Begin a transaction of the given database, nested or not, that changes the snapshot.
+     * The outermost transaction of a thread that changes the snapshot must be begun here, and
+     * every one of them must end with {@link #endTransaction(SQLiteDatabase)}.
+     */
+    void beginTransaction(SQLiteDatabase db) {
+        db.beginTransactionWithListener(transactionListener);
+    }
+
+    /**
+     * End a transaction begun with {@link #beginTransaction(SQLiteDatabase)}. When it is the
+     * outermost one, its queued changes are applied if it committed, dropped otherwise.
+     */
+    void endTransaction(SQLiteDatabase db) {
+        boolean ended = false;
+        try {
+            db.endTransaction();
+            ended = true;
+        } finally {
+            Transaction transaction = transactions.get();
+            if (transaction != null && transaction.depth == 0) {
+                transactions.remove();
+                // Not applied either if the COMMIT itself failed.
+                if (ended && !transaction.rolledBack) {
+                    for (Runnable change : transaction.changes) {
+                        change.run();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue the given change if the thread is in a transaction that changes the snapshot.
+     *
+     * @return whether the change was queued, false if it must be applied right away.
+     */
+    private boolean queue(Runnable change) {
+        Transaction transaction = transactions.get();
+        if (transaction == null) {
+            return false;
+        }
+        transaction.changes.add(change);
+        return true;
+    }
+
+    /**
+     * Insert a row, or replace it if a row with the same ID already exists.
+     */
+    void put(final long id, final String breed, final int gender, final int weight) {
+        boolean queued = queue(new Runnable() {
+            @Override
+            public void run() {
+                applyPut(id, breed, gender, weight);
+            }
+        });
+        if (!queued) {
+            applyPut(id, breed, gender, weight);
+        }
+    }
+
+    private synchronized void applyPut(long id, String breed, int gender, int weight) {
+        if (!enabled) {
+            return;
+        }
+
+        int breedCode = encodeBreed(breed);
+
+        // Fast path, a freshly inserted row.
+        if (size == 0 || id > ids[size - 1]) {
+            ensureCapacity(size + 1);
+            append(id, breedCode, gender, weight);
+            return;
+        }
+
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            position = -(position + 1);
+            ensureCapacity(size + 1);
+
+            int tail = size - position;
+            System.arraycopy(ids, position, ids, position + 1, tail);
+            System.arraycopy(genders, position, genders, position + 1, tail);
+            System.arraycopy(weights, position, weights, position + 1, tail);
+            System.arraycopy(breedCodes, position, breedCodes, position + 1, tail);
+            size++;
+        }
+
+        ids[position] = id;
+        genders[position] = gender;
+        weights[position] = weight;
+        breedCodes[position] = breedCode;
+    }
+
+    /**
+     * Remove the rows with the given IDs. IDs that are not in the snapshot are ignored.
+     */
+    void remove(final long[] idsToRemove) {
+        boolean queued = queue(new Runnable() {
+            @Override
+            public void run() {
+                applyRemove(idsToRemove);
+            }
+        });
+        if (!queued) {
+            applyRemove(idsToRemove);
+        }
+    }
+
+    private synchronized void applyRemove(long[] idsToRemove) {
+        if (!enabled || idsToRemove.length == 0) {
+            return;
+        }
+
+        long[] sorted = idsToRemove.clone();
+        Arrays.sort(sorted);
+
+        // Compact the columns in a single pass.
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            if (Arrays.binarySearch(sorted, ids[read]) >= 0) {
+                continue;
+            }
+            if (write != read) {
+                ids[write] = ids[read];
+                genders[write] = genders[read];
+                weights[write] = weights[read];
+                breedCodes[write] = breedCodes[read];
+            }
+            write++;
+        }
+        size = write;
+    }
+
+    /**
+     * Remove every row, but keep accepting updates.
+     */
+    void removeAll() {
+        boolean queued = queue(new Runnable() {
+            @Override
+            public void run() {
+                applyRemoveAll();
+            }
+        });
+        if (!queued) {
+            applyRemoveAll();
+        }
+    }
+
+    private synchronized void applyRemoveAll() {
+        if (enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns the number of pets in the snapshot.
+     */
+    public synchronized int count() {
+        return size;
+    }
+
+    /**
+     * Returns the number of pets with the given gender.
+     */
+    public synchronized int countByGender(int gender) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (genders[i] == gender) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of pets of the given breed, or of pets without a breed if the given
+     * breed is null.
+     */
+    public synchronized int countByBreed(String breed) {
+        int code = lookupBreed(breed);
+        if (code == NO_BREED && breed != null) {
+            // The breed was never seen.
+            return 0;
+        }
+
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (breedCodes[i] == code) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of pets whose weight is in the inclusive range [minWeight, maxWeight].
+     */
+    public synchronized int countByWeight(int minWeight, int maxWeight) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int weight = weights[i];
+            if (weight >= minWeight && weight <= maxWeight) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the weights of all the pets.
+     */
+    public synchronized long totalWeight() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += weights[i];
+        }
+        return total;
+    }
+
+    /**
+     * Returns the average weight of all the pets, or 0 if there are no pets.
+     */
+    public synchronized double averageWeight() {
+        return size == 0 ? 0 : (double) totalWeight() / size;
+    }
+
+    /**
+     * Returns the average weight of the pets with the given gender, or 0 if there are none.
+     */
+    public synchronized double averageWeightByGender(int gender) {
+        long total = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (genders[i] == gender) {
+                total += weights[i];
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns the IDs of the pets with the given gender, in ascending order.
+     */
+    public synchronized long[] idsByGender(int gender) {
+        long[] result = new long[countByGender(gender)];
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            if (genders[i] == gender) {
+                result[next++] = ids[i];
+            }
+        }
+        return result;
+    }
+
+    private void append(long id, int breedCode, int gender, int weight) {
+        ids[size] = id;
+        genders[size] = gender;
+        weights[size] = weight;
+        breedCodes[size] = breedCode;
+        size++;
+    }
+
+    private void clear() {
+        size = 0;
+        breeds.clear();
+        breedCodesByName.clear();
+    }
+
+    private int encodeBreed(String breed) {
+        if (breed == null) {
+            return NO_BREED;
+        }
+
+        Integer code = breedCodesByName.get(breed);
+        if (code == null) {
+            code = breeds.size();
+            breeds.add(breed);
+            breedCodesByName.put(breed, code);
+        }
+        return code;
+    }
+
+    private int lookupBreed(String breed) {
+        if (breed == null) {
+            return NO_BREED;
+        }
+
+        Integer code = breedCodesByName.get(breed);
+        return code == null ? NO_BREED : code;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        genders = Arrays.copyOf(genders, newCapacity);
+        weights = Arrays.copyOf(weights, newCapacity);
+        breedCodes = Arrays.copyOf(breedCodes, newCapacity);
+    }
+}
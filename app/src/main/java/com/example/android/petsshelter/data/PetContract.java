@@ -28,6 +28,124 @@ public final class PetContract {
      * base content uri. */
     public static final String PATH_PETS = "petsshelter";
 
+    /* Represents the maintenance_log table, to be used as a path with the base content uri. */
+    public static final String PATH_MAINTENANCE = "maintenance";
+
+    /* Appended to the pets path, followed by a shelter ID, to scope an operation to a single
+     * shelter. */
+    public static final String PATH_SHELTER = "shelter";
+
+    /* Appended to a shelter path to get the alphabetical sections of its pets. */
+    public static final String PATH_SECTIONS = "sections";
+
+    /* Represents the pet events log. Appended to a pet path for its timeline, followed by the
+     * paths below for the time bucketed summaries. */
+    public static final String PATH_EVENTS = "events";
+    public static final String PATH_DAILY = "daily";
+    public static final String PATH_MONTHLY = "monthly";
+    public static final String PATH_SUMMARY = "summary";
+
+    /* Query parameters of the event summaries: the time range, in milliseconds since epoch,
+     * both inclusive. */
+    public static final String QUERY_PARAM_FROM = "from";
+    public static final String QUERY_PARAM_TO = "to";
+
+    /* Appended to a pet path for its medical records, optionally followed by a record ID. */
+    public static final String PATH_RECORDS = "records";
+
+    /* Appended to the pets path to include the archived (adopted) pets. */
+    public static final String PATH_INCLUDE_ARCHIVED = "include_archived";
+
+    /* Names of the methods that can be invoked on the provider through ContentResolver#call(). */
+
+    // Load the in-memory columnar snapshot of the pets table and keep it up to date.
+    public static final String METHOD_ENABLE_COLUMNAR_SNAPSHOT = "enable_columnar_snapshot";
+
+    // Drop the in-memory columnar snapshot.
+    public static final String METHOD_DISABLE_COLUMNAR_SNAPSHOT = "disable_columnar_snapshot";
+
+    /* Enable (the default) or disable the cache of the pet list results. Disabling it drops the
+     * cached results, e.g. to time the queries themselves, and the result bundle tells whether
+     * it was enabled. The stats result bundle holds the number of hits and misses, the number
+     * of evicted results, and the memory used and allowed in bytes. */
+    public static final String METHOD_ENABLE_QUERY_CACHE = "enable_query_cache";
+    public static final String METHOD_DISABLE_QUERY_CACHE = "disable_query_cache";
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+    public static final String KEY_CACHE_WAS_ENABLED = "cache_was_enabled";
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+    public static final String KEY_CACHE_EVICTIONS = "cache_evictions";
+    public static final String KEY_CACHE_SIZE_BYTES = "cache_size_bytes";
+    public static final String KEY_CACHE_MAX_BYTES = "cache_max_bytes";
+
+    /* Move the adopted pets to the archive table right away, instead of waiting for the
+     * background archiver. The result bundle holds the number of archived pets. */
+    public static final String METHOD_ARCHIVE_ADOPTED = "archive_adopted";
+    public static final String KEY_ARCHIVED_COUNT = "archived_count";
+
+    /* Set the window (in milliseconds, given as the string argument) during which change
+     * notifications are coalesced per URI. 0 sends every notification right away. */
+    public static final String METHOD_SET_NOTIFICATION_WINDOW = "set_notification_window";
+
+    /* Run the database maintenance (ANALYZE, PRAGMA optimize and WAL checkpoint) and record the
+     * results in the maintenance log, see MaintenanceEntry. Unless EXTRA_FORCE is set, nothing
+     * is done when the previous run is more recent than EXTRA_MIN_INTERVAL_MS. A forced run, or
+     * one with EXTRA_CHECK_INTEGRITY set, also checks the integrity of the database within a
+     * time limit, and is then due when the previous check is older than the interval. The
+     * result bundle tells whether the maintenance ran. Cancelling the maintenance interrupts the
+     * running task and skips the other ones, the cancelled run doesn't count as the previous
+     * run. */
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+    public static final String METHOD_CANCEL_MAINTENANCE = "cancel_maintenance";
+    public static final String EXTRA_FORCE = "force";
+    public static final String EXTRA_MIN_INTERVAL_MS = "min_interval_ms";
+    public static final String EXTRA_CHECK_INTEGRITY = "check_integrity";
+    public static final String KEY_MAINTENANCE_RAN = "maintenance_ran";
+
+    /* Write a consistent copy of the database while it is in use, to the file given by the
+     * string argument (default: backups/shelter.db in the app files). Restore the database from
+     * the backup file given by the string argument, it is verified before it replaces the
+     * database. The progress is sent to the optional EXTRA_PROGRESS_RECEIVER (a ResultReceiver),
+     * each update holds KEY_PROGRESS_DONE out of KEY_PROGRESS_TOTAL steps (a backup taken with
+     * VACUUM INTO only reports 0 and 1 out of 1). The result bundle holds the backup file and
+     * the time taken. */
+    public static final String METHOD_BACKUP = "backup";
+    public static final String METHOD_RESTORE = "restore";
+    public static final String EXTRA_PROGRESS_RECEIVER = "progress_receiver";
+    public static final String KEY_PROGRESS_DONE = "progress_done";
+    public static final String KEY_PROGRESS_TOTAL = "progress_total";
+    public static final String KEY_BACKUP_PATH = "backup_path";
+    public static final String KEY_BACKUP_SIZE = "backup_size";
+    public static final String KEY_DURATION_MS = "duration_ms";
+
+    /* Update or delete the pets given by their IDs (EXTRA_IDS, a long array) in a single
+     * transaction, and notify the observers once. The update takes the new values in
+     * EXTRA_VALUES (a ContentValues), checked like in ContentResolver#update(). The result
+     * bundle holds the number of updated or deleted pets. */
+    public static final String METHOD_BULK_UPDATE = "bulk_update";
+    public static final String METHOD_BULK_DELETE = "bulk_delete";
+    public static final String EXTRA_IDS = "ids";
+    public static final String EXTRA_VALUES = "values";
+    public static final String KEY_ROW_COUNT = "row_count";
+
+    /* Find the pets likely to be the same animal as the pet given in EXTRA_VALUES (name, breed,
+     * gender and weight, like in ContentResolver#insert()), before inserting it. The result
+     * bundle holds their IDs in KEY_DUPLICATE_IDS, at most MAX_DUPLICATES of them.
+     * The dedup report finds every group of likely duplicates among the pets: the result bundle
+     * holds the IDs of all the groups one after the other in KEY_DUPLICATE_IDS, and the size
+     * of each group in KEY_GROUP_SIZES. */
+    public static final String METHOD_FIND_DUPLICATES = "find_duplicates";
+    public static final String METHOD_DEDUP_REPORT = "dedup_report";
+    public static final String KEY_DUPLICATE_IDS = "duplicate_ids";
+    public static final String KEY_GROUP_SIZES = "group_sizes";
+    public static final int MAX_DUPLICATES = 20;
+
+    /* Reopen the database with the connection tuning profile named by the string argument
+     * (see PetDbProfile), and keep using it. The result bundle describes the settings in
+     * effect. */
+    public static final String METHOD_SET_DB_PROFILE = "set_db_profile";
+    public static final String KEY_DB_PROFILE_SETTINGS = "db_profile_settings";
+
     /**
      * Represents Pets table in the database.
      */
@@ -37,6 +155,11 @@ public final class PetContract {
         public static final Uri CONTENT_URI =
                 Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /* Content Provider Uri of the pets and the archived pets
+         * (content://com.example.android.petsshelter/petsshelter/include_archived) */
+        public static final Uri CONTENT_URI_INCLUDE_ARCHIVED =
+                Uri.withAppendedPath(CONTENT_URI, PATH_INCLUDE_ARCHIVED);
+
         // MIME type for list of petsshelter.
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
@@ -45,14 +168,64 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        // MIME type for the alphabetical sections of the pets of a shelter.
+        public static final String CONTENT_SECTIONS_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_PETS + "." + PATH_SECTIONS;
+
         public static final String TABLE_NAME = "petsshelter";
 
+        // Adopted pets are moved here from the main table, it has the same columns.
+        public static final String ARCHIVE_TABLE_NAME = "petsshelter_archive";
+
+        /* The pets table with the breed names joined back from the breeds table, the pets are
+         * queried through it. */
+        public static final String PETS_VIEW_NAME = "petsshelter_with_breed";
+
+        // Union of the main and the archive tables, with the breed names.
+        public static final String ALL_PETS_VIEW_NAME = "petsshelter_all";
+
         /* Constants represent columns in the Pets table. */
         public static final String COL_ID = BaseColumns._ID;
         public static final String COL_PET_NAME = "name";
+        /* The name of the breed. Only the views have this column, the tables refer to the
+         * breeds table by COL_BREED_ID. Inserts and updates take the name, the provider
+         * resolves it to an ID. */
         public static final String COL_PET_BREED = "breed";
+        public static final String COL_BREED_ID = "breed_id";
         public static final String COL_PET_GENDER = "gender";
         public static final String COL_PET_WEIGHT = "weight";
+        public static final String COL_PET_STATUS = "status";
+        public static final String COL_SHELTER_ID = "shelter_id";
+        /* Hash of the normalized name, breed, gender and weight bucket, maintained by the
+         * provider. Equal fingerprints mean likely duplicates. */
+        public static final String COL_FINGERPRINT = "fingerprint";
+
+        /* Columns of the sections URI: the first character of the names in upper case, in the
+         * order of SORT_BY_NAME, and the number of pets whose name starts with it. */
+        public static final String COL_SECTION = "section";
+        public static final String COL_SECTION_COUNT = "section_count";
+
+        /* Sort order of the pets by name, ignoring the case of the letters. The sections follow
+         * this order, and the per shelter name index has the same collation. */
+        public static final String SORT_BY_NAME = COL_PET_NAME + " COLLATE NOCASE";
+
+        /* Date of the latest vaccination of the pet, see RecordEntry, or null if it has none.
+         * Computed by the provider when requested in the projection of the pets, shelter or single
+         * pet URI, in the same query as the pets. */
+        public static final String COL_LAST_VACCINATION = "last_vaccination";
+
+        /* Indexes on the Pets table. */
+        public static final String INDEX_GENDER_WEIGHT = "petsshelter_gender_weight_idx";
+        public static final String INDEX_STATUS = "petsshelter_status_idx";
+        public static final String INDEX_SHELTER_NAME = "petsshelter_shelter_name_idx";
+        public static final String INDEX_SHELTER_GENDER_WEIGHT =
+                "petsshelter_shelter_gender_weight_idx";
+        public static final String INDEX_BREED = "petsshelter_breed_idx";
+        public static final String INDEX_FINGERPRINT = "petsshelter_fingerprint_idx";
+
+        // The shelter of the pets that were stored before shelters were introduced.
+        public static final long DEFAULT_SHELTER_ID = 1;
 
         /*
          * Possible values for gender.
@@ -61,6 +234,33 @@ public final class PetContract {
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
+        /*
+         * Possible values for the adoption status.
+         * */
+        public static final int STATUS_AVAILABLE = 0;
+        public static final int STATUS_ADOPTED = 1;
+
+        /**
+         * Returns the content URI of the pets of the given shelter
+         * (content://com.example.android.petsshelter/petsshelter/shelter/#).
+         */
+        public static Uri buildShelterUri(long shelterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SHELTER)
+                    .appendPath(String.valueOf(shelterId))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the alphabetical sections of the pets of the given shelter
+         * sorted by name (content://com.example.android.petsshelter/petsshelter/shelter/#/sections).
+         */
+        public static Uri buildShelterSectionsUri(long shelterId) {
+            return buildShelterUri(shelterId).buildUpon()
+                    .appendPath(PATH_SECTIONS)
+                    .build();
+        }
+
         /**
          * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE},
          * or {@link #GENDER_FEMALE}.
@@ -68,5 +268,229 @@ public final class PetContract {
         public static boolean isValidGender(int gender) {
             return gender == GENDER_UNKNOWN || gender == GENDER_MALE || gender == GENDER_FEMALE;
         }
+
+        /**
+         * Returns whether or not the given status is {@link #STATUS_AVAILABLE} or
+         * {@link #STATUS_ADOPTED}.
+         */
+        public static boolean isValidStatus(int status) {
+            return status == STATUS_AVAILABLE || status == STATUS_ADOPTED;
+        }
+    }
+
+    /**
+     * Represents the breeds table in the database, the dictionary of the distinct breeds the
+     * pets refer to.
+     */
+    public static final class BreedEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "breeds";
+
+        /* Constants represent columns in the breeds table. */
+        public static final String COL_ID = BaseColumns._ID;
+        // Canonical name (trimmed, single spaces), unique ignoring case.
+        public static final String COL_BREED_NAME = "name";
+    }
+
+    /**
+     * Represents the medical records of the pets: vaccinations, checkups and treatments.
+     * <p>
+     * The records of a pet are deleted with it, and move to the archive with it when it is
+     * adopted.
+     */
+    public static final class RecordEntry implements BaseColumns {
+
+        // MIME type for list of medical records.
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_RECORDS;
+
+        // MIME type for a single medical record.
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_RECORDS;
+
+        public static final String TABLE_NAME = "medical_records";
+
+        // The records of the archived pets, it has the same columns.
+        public static final String ARCHIVE_TABLE_NAME = "medical_records_archive";
+
+        /* Constants represent columns in the medical records table. */
+        public static final String COL_ID = BaseColumns._ID;
+        public static final String COL_PET_ID = "pet_id";
+        // Date of the record, milliseconds since epoch.
+        public static final String COL_DATE = "date";
+        public static final String COL_TYPE = "type";
+        public static final String COL_DESCRIPTION = "description";
+
+        // The records of a pet in date order.
+        public static final String INDEX_PET_DATE = "medical_records_pet_date_idx";
+        public static final String INDEX_ARCHIVE_PET_DATE = "medical_records_archive_pet_date_idx";
+
+        /*
+         * Possible values for the type.
+         * */
+        public static final int TYPE_VACCINATION = 0;
+        public static final int TYPE_CHECKUP = 1;
+        public static final int TYPE_TREATMENT = 2;
+
+        /**
+         * Returns the content URI of the medical records of the given pet
+         * (content://com.example.android.petsshelter/petsshelter/#/records).
+         */
+        public static Uri buildPetRecordsUri(long petId) {
+            return PetEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(petId))
+                    .appendPath(PATH_RECORDS)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of a single medical record of the given pet
+         * (content://com.example.android.petsshelter/petsshelter/#/records/#).
+         */
+        public static Uri buildRecordUri(long petId, long recordId) {
+            return buildPetRecordsUri(petId).buildUpon()
+                    .appendPath(String.valueOf(recordId))
+                    .build();
+        }
+
+        /**
+         * Returns whether or not the given type is {@link #TYPE_VACCINATION},
+         * {@link #TYPE_CHECKUP} or {@link #TYPE_TREATMENT}.
+         */
+        public static boolean isValidType(int type) {
+            return type == TYPE_VACCINATION || type == TYPE_CHECKUP || type == TYPE_TREATMENT;
+        }
+    }
+
+    /**
+     * Represents the append-only log of the pet events, and its daily and monthly rollups.
+     * <p>
+     * The rollups count the events of each type per UTC day and month, and sum their values,
+     * e.g. the weight sum of the weight checks. They are updated in the same transaction as the
+     * log, so range summaries never read the log itself.
+     */
+    public static final class EventEntry implements BaseColumns {
+
+        // Content Provider Uri (content://com.example.android.petsshelter/events)
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_EVENTS);
+
+        // The daily rollups (content://com.example.android.petsshelter/events/daily)
+        public static final Uri CONTENT_URI_DAILY =
+                Uri.withAppendedPath(CONTENT_URI, PATH_DAILY);
+
+        // The monthly rollups (content://com.example.android.petsshelter/events/monthly)
+        public static final Uri CONTENT_URI_MONTHLY =
+                Uri.withAppendedPath(CONTENT_URI, PATH_MONTHLY);
+
+        /* The totals per event type over a time range
+         * (content://com.example.android.petsshelter/events/summary) */
+        public static final Uri CONTENT_URI_SUMMARY =
+                Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
+        // MIME type for list of events.
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_EVENTS;
+
+        // MIME type for list of event rollups or totals.
+        public static final String CONTENT_ROLLUP_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_EVENTS + "." + PATH_SUMMARY;
+
+        public static final String TABLE_NAME = "pet_events";
+        public static final String DAILY_TABLE_NAME = "pet_events_daily";
+        public static final String MONTHLY_TABLE_NAME = "pet_events_monthly";
+
+        /* Constants represent columns in the events table. */
+        public static final String COL_ID = BaseColumns._ID;
+        public static final String COL_PET_ID = "pet_id";
+        // Time of the event, milliseconds since epoch.
+        public static final String COL_TIMESTAMP = "timestamp";
+        public static final String COL_TYPE = "type";
+        /* Value of the event, depends on its type: the weight for an intake or a weight check,
+         * the new shelter for a transfer, null for an adoption. */
+        public static final String COL_VALUE = "value";
+
+        /* Constants represent columns in the rollup tables, and in the summary. */
+        // Days since epoch (UTC) in the daily table, months since January 1970 in the monthly one.
+        public static final String COL_DAY = "day";
+        public static final String COL_MONTH = "month";
+        public static final String COL_EVENT_COUNT = "event_count";
+        public static final String COL_VALUE_SUM = "value_sum";
+
+        // Covers the timeline of a pet.
+        public static final String INDEX_PET_TIMELINE = "pet_events_timeline_idx";
+
+        /*
+         * Possible values for the type.
+         * */
+        public static final int TYPE_INTAKE = 0;
+        public static final int TYPE_ADOPTION = 1;
+        public static final int TYPE_WEIGHT_CHECK = 2;
+        public static final int TYPE_TRANSFER = 3;
+
+        /**
+         * Returns the content URI of the timeline of the given pet
+         * (content://com.example.android.petsshelter/petsshelter/#/events).
+         */
+        public static Uri buildPetEventsUri(long petId) {
+            return PetEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(petId))
+                    .appendPath(PATH_EVENTS)
+                    .build();
+        }
+
+        /**
+         * Returns the given rollup or summary URI restricted to a time range, in milliseconds
+         * since epoch, both inclusive.
+         */
+        public static Uri buildRangeUri(Uri uri, long from, long to) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_FROM, String.valueOf(from))
+                    .appendQueryParameter(QUERY_PARAM_TO, String.valueOf(to))
+                    .build();
+        }
+    }
+
+    /**
+     * Represents the maintenance log table in the database. Each maintenance run adds one row
+     * per task.
+     */
+    public static final class MaintenanceEntry implements BaseColumns {
+
+        // Content Provider Uri (content://com.example.android.petsshelter/maintenance)
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MAINTENANCE);
+
+        // MIME type for list of maintenance log entries.
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_MAINTENANCE;
+
+        public static final String TABLE_NAME = "maintenance_log";
+
+        /* Constants represent columns in the maintenance log table. */
+        public static final String COL_ID = BaseColumns._ID;
+        // Start time of the run (milliseconds since epoch), shared by all the tasks of a run.
+        public static final String COL_RUN_STARTED_AT = "run_started_at";
+        public static final String COL_TASK = "task";
+        public static final String COL_DURATION_MS = "duration_ms";
+        // 1 if the task completed, 0 if it failed or was interrupted.
+        public static final String COL_SUCCESS = "success";
+        // Output of the task, e.g. the result of the integrity check.
+        public static final String COL_RESULT = "result";
+
+        public static final String INDEX_RUN_STARTED_AT = "maintenance_log_run_started_at_idx";
+
+        /*
+         * Possible values for the task.
+         * */
+        public static final String TASK_ANALYZE = "analyze";
+        public static final String TASK_OPTIMIZE = "optimize";
+        public static final String TASK_WAL_CHECKPOINT = "wal_checkpoint";
+        public static final String TASK_INTEGRITY_CHECK = "integrity_check";
     }
-}
\ No newline at end of file
+}
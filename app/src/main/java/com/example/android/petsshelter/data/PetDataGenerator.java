@@ -0,0 +1,168 @@
+package com.example.android.petsshelter.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic pets for load and scale testing.
+ * <p>
+ * Names, breeds, genders and weights follow skewed, shelter like distributions (a handful of
+ * common names and breeds, weights that depend on the breed). The same seed always produces the
+ * same pets, so a dataset can be reproduced exactly in tests, benchmarks and on devices.
+ */
+public class PetDataGenerator {
+
+    // Number of rows sent to the provider in a single bulk insert.
+    private static final int BATCH_SIZE = 5000;
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Milo", "Lily", "Rocky",
+            "Molly", "Buddy", "Bailey", "Oliver", "Sadie", "Leo", "Lola", "Tucker", "Chloe",
+            "Bear", "Sophie", "Duke", "Stella", "Teddy", "Zoe", "Oscar", "Ruby", "Toby", "Coco",
+            "Simba", "Nala", "Jack", "Rosie", "Winston", "Penny", "Loki", "Ginger", "Shadow",
+            "Pepper", "Tiger", "Smokey", "Mittens", "Whiskers", "Ziggy", "Biscuit", "Peanut",
+            "Hazel", "Olive", "Jasper", "Maple"
+    };
+
+    /* The breeds with, at the same index in the arrays below, their relative frequency, mean
+     * weight (kg) and weight standard deviation (kg). A null breed stands for an unknown breed. */
+    private static final String[] BREEDS = {
+            "Mixed", "Labrador Retriever", "German Shepherd", "Pit Bull Terrier", "Chihuahua",
+            "Beagle", "Boxer", "Golden Retriever", "Dachshund", "Husky",
+            "Domestic Shorthair", "Domestic Longhair", "Siamese", "Maine Coon", "Tabby",
+            null
+    };
+    private static final int[] BREED_WEIGHTS = {
+            18, 8, 5, 7, 5,
+            4, 3, 3, 2, 2,
+            20, 6, 3, 2, 4,
+            8
+    };
+    private static final int[] BREED_MEAN_KG = {
+            15, 30, 32, 25, 2,
+            10, 28, 30, 8, 22,
+            4, 5, 4, 7, 4,
+            12
+    };
+    private static final int[] BREED_STDDEV_KG = {
+            8, 5, 5, 5, 1,
+            2, 4, 4, 2, 4,
+            1, 1, 1, 2, 1,
+            8
+    };
+
+    private static final int BREED_WEIGHTS_TOTAL = sum(BREED_WEIGHTS);
+
+    // Percentages of male and female pets, the rest are of unknown gender.
+    private static final int PERCENT_MALE = 46;
+    private static final int PERCENT_FEMALE = 46;
+
+    // Percentage of the names that get a numeric suffix, e.g. "Bella 12".
+    private static final int PERCENT_SUFFIXED_NAMES = 30;
+
+    private final Random random;
+
+    /**
+     * @param seed The seed of the random generator, the same seed produces the same pets.
+     */
+    public PetDataGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Returns the values of the next generated pet, ready to be inserted through
+     * {@link PetProvider}.
+     */
+    public ContentValues next() {
+        ContentValues values = new ContentValues(4);
+        values.put(PetEntry.COL_PET_NAME, nextName());
+
+        int breed = nextBreedIndex();
+        values.put(PetEntry.COL_PET_BREED, BREEDS[breed]);
+        values.put(PetEntry.COL_PET_GENDER, nextGender());
+        values.put(PetEntry.COL_PET_WEIGHT, nextWeight(breed));
+
+        return values;
+    }
+
+    /**
+     * Returns the values of the next {@code count} generated pets.
+     */
+    public ContentValues[] next(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = next();
+        }
+        return values;
+    }
+
+    /**
+     * Generate {@code count} pets and write them through the bulk insert path of the provider,
+     * in batches. This must not be called on the main thread.
+     *
+     * @param uri The URI to insert into, either {@link PetEntry#CONTENT_URI} or the URI of a
+     *            shelter.
+     * @return the number of pets that were inserted.
+     */
+    public int insert(ContentResolver resolver, Uri uri, int count) {
+        int inserted = 0;
+        for (int remaining = count; remaining > 0; remaining -= BATCH_SIZE) {
+            ContentValues[] batch = next(Math.min(remaining, BATCH_SIZE));
+            inserted += resolver.bulkInsert(uri, batch);
+        }
+        return inserted;
+    }
+
+    private String nextName() {
+        /* Squaring a uniform number skews the picks towards the start of the list, so a few
+         * names are very common and the rest are rare. */
+        double skewed = random.nextDouble();
+        String name = NAMES[(int) (skewed * skewed * NAMES.length)];
+
+        if (random.nextInt(100) < PERCENT_SUFFIXED_NAMES) {
+            name = name + " " + (1 + random.nextInt(99));
+        }
+        return name;
+    }
+
+    private int nextBreedIndex() {
+        int pick = random.nextInt(BREED_WEIGHTS_TOTAL);
+        for (int i = 0; i < BREED_WEIGHTS.length; i++) {
+            pick -= BREED_WEIGHTS[i];
+            if (pick < 0) {
+                return i;
+            }
+        }
+        return BREED_WEIGHTS.length - 1;
+    }
+
+    private int nextGender() {
+        int pick = random.nextInt(100);
+        if (pick < PERCENT_MALE) {
+            return PetEntry.GENDER_MALE;
+        } else if (pick < PERCENT_MALE + PERCENT_FEMALE) {
+            return PetEntry.GENDER_FEMALE;
+        }
+        return PetEntry.GENDER_UNKNOWN;
+    }
+
+    private int nextWeight(int breed) {
+        long weight = Math.round(
+                BREED_MEAN_KG[breed] + random.nextGaussian() * BREED_STDDEV_KG[breed]);
+        // Weights are never negative, and even the smallest pet weighs something.
+        return (int) Math.max(1, weight);
+    }
+
+    private static int sum(int[] values) {
+        int total = 0;
+        for (int value : values) {
+            total += value;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.android.petsshelter.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Online backup and restore of the shelter database.
+ * <p>
+ * The backup reads the database through its own connection, in a single read transaction, so
+ * it is a consistent snapshot. The database is in write-ahead log mode (see
+ * {@link PetDbHelper#onConfigure(SQLiteDatabase)}), so the provider keeps serving reads and
+ * writes meanwhile.
+ * <p>
+ * With SQLite 3.27+ (Android R and up) the backup is a single VACUUM INTO, older versions copy
+ * the schema and the rows table by table into an empty database.
+ * <p>
+ * The restore verifies the candidate file before installing it in place of the database with
+ * a rename, which is atomic on the same file system.
+ */
+class PetDbBackup {
+
+    private static final String TAG = PetDbBackup.class.getSimpleName();
+
+    // The first SQLite version that knows VACUUM INTO.
+    private static final int VACUUM_INTO_MIN_VERSION = 3027000;
+
+    // The files SQLite keeps next to a database.
+    private static final String[] DATABASE_FILE_SUFFIXES = {"-wal", "-shm", "-journal"};
+
+    // Steps reported to the progress receiver of a restore.
+    private static final int RESTORE_STEP_VERIFY = 1;
+    private static final int RESTORE_STEP_COPY = 2;
+    static final int RESTORE_STEP_SWAP = 3;
+    static final int RESTORE_STEP_REOPEN = 4;
+    static final int RESTORE_STEPS = 4;
+
+    /**
+     * Reports the progress of a backup or a restore to the optional receiver given by the
+     * caller, see {@link PetContract#EXTRA_PROGRESS_RECEIVER}.
+     */
+    static final class Progress {
+
+        private final ResultReceiver receiver;
+
+        Progress(ResultReceiver receiver) {
+            this.receiver = receiver;
+        }
+
+        void report(int done, int total) {
+            if (receiver == null) {
+                return;
+            }
+            Bundle progress = new Bundle();
+            progress.putInt(PetContract.KEY_PROGRESS_DONE, done);
+            progress.putInt(PetContract.KEY_PROGRESS_TOTAL, total);
+            receiver.send(0, progress);
+        }
+    }
+
+    /**
+     * Write a consistent copy of the given database file to the given destination, replacing
+     * any previous backup there.
+     * <p>
+     * The progress counts the copied tables. VACUUM INTO is a single statement that reports
+     * nothing while it runs, it only reports its start and its end, 0 and 1 out of 1.
+     *
+     * @return the size of the backup, in bytes.
+     */
+    long backup(File databaseFile, File destination, Progress progress) throws IOException {
+        File parent = destination.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+
+        /* Both ways refuse to write into an existing database, the backup is written next to
+         * the destination and renamed when complete, so a failed backup never replaces a good
+         * one. */
+        File tmp = new File(destination.getPath() + ".tmp");
+        SQLiteDatabase.deleteDatabase(tmp);
+
+        long start = SystemClock.elapsedRealtime();
+
+        /* Opened read-write with the same defaults as the provider's connections, Android
+         * refuses to run VACUUM on a read-only connection. VACUUM INTO only reads it. Without
+         * the write-ahead log flag, opening the connection would switch the journal mode of the
+         * database back to the default. */
+        SQLiteDatabase source = SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        try {
+            if (getSqliteVersion(source) >= VACUUM_INTO_MIN_VERSION) {
+                progress.report(0, 1);
+                source.execSQL("VACUUM INTO ?", new Object[]{tmp.getPath()});
+                progress.report(1, 1);
+            } else {
+                copyTables(databaseFile, tmp, progress);
+            }
+        } finally {
+            source.close();
+        }
+
+        if (!tmp.renameTo(destination)) {
+            SQLiteDatabase.deleteDatabase(tmp);
+            throw new IOException("Cannot rename " + tmp + " to " + destination);
+        }
+
+        Log.i(TAG, "backup: " + destination + " written in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return destination.length();
+    }
+
+    /**
+     * Copy the schema and the rows of the source database into a new database, in a single
+     * transaction of the new database. The rows are read in the same transaction, which holds
+     * a single read snapshot of the source until the copy commits.
+     * <p>
+     * The source is attached to the connection of the new database: attaching a database to
+     * one of the provider's connections would turn the write-ahead log off. The new database is
+     * opened without the localized collators, so that Android doesn't create its own
+     * android_metadata table, the one of the source is copied like the other tables.
+     */
+    private void copyTables(File databaseFile, File destination, Progress progress) {
+        SQLiteDatabase target = SQLiteDatabase.openDatabase(destination.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY
+                        | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            target.execSQL("ATTACH DATABASE ? AS src", new Object[]{databaseFile.getPath()});
+
+            target.beginTransaction();
+            try {
+                List<String> tables = new ArrayList<>();
+                List<String> otherObjects = new ArrayList<>();
+                Cursor cursor = target.rawQuery("SELECT type, name, sql FROM src.sqlite_master"
+                        + " WHERE sql NOT NULL AND name NOT LIKE 'sqlite_%'", null);
+                try {
+                    while (cursor.moveToNext()) {
+                        if ("table".equals(cursor.getString(0))) {
+                            target.execSQL(cursor.getString(2));
+                            tables.add(cursor.getString(1));
+                        } else {
+                            // Indexes and views, created once the rows are in.
+                            otherObjects.add(cursor.getString(2));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                for (int i = 0; i < tables.size(); i++) {
+                    progress.report(i, tables.size());
+                    String table = tables.get(i);
+                    target.execSQL("INSERT INTO main." + table + " SELECT * FROM src." + table);
+                }
+
+                for (String sql : otherObjects) {
+                    target.execSQL(sql);
+                }
+
+                /* The AUTOINCREMENT counters, the table exists once an AUTOINCREMENT table does.
+                 * The copied rows already set the counters to their largest IDs, replaced by the
+                 * source counters, which also count the deleted rows. */
+                if (hasTable(target, "src", "sqlite_sequence")) {
+                    target.execSQL("DELETE FROM main.sqlite_sequence");
+                    target.execSQL("INSERT INTO main.sqlite_sequence"
+                            + " SELECT * FROM src.sqlite_sequence");
+                }
+
+                target.setVersion(getVersion(target, "src"));
+
+                target.setTransactionSuccessful();
+            } finally {
+                target.endTransaction();
+            }
+            progress.report(tables.size(), tables.size());
+
+            target.execSQL("DETACH DATABASE src");
+        } finally {
+            target.close();
+        }
+    }
+
+    /**
+     * Make sure the given file is a sound shelter database this app can open.
+     *
+     * @throws IllegalArgumentException if it is not.
+     */
+    void verify(File backup, int maxVersion) {
+        if (!backup.isFile()) {
+            throw new IllegalArgumentException("No backup at " + backup);
+        }
+
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(backup.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Not a database: " + backup, e);
+        }
+
+        try {
+            int version = db.getVersion();
+            if (version < 1 || version > maxVersion) {
+                throw new IllegalArgumentException("Unsupported database version " + version);
+            }
+
+            if (!hasTable(db, "main", PetEntry.TABLE_NAME)) {
+                throw new IllegalArgumentException("Not a shelter database: " + backup);
+            }
+
+            Cursor cursor = db.rawQuery("PRAGMA integrity_check(1)", null);
+            try {
+                String result = cursor.moveToFirst() ? cursor.getString(0) : null;
+                if (!"ok".equals(result)) {
+                    throw new IllegalArgumentException("Corrupt backup: " + result);
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Verify the backup and copy it next to the database file, ready to be swapped in by
+     * {@link #swap(File, File)} once the database is closed.
+     *
+     * @return the copy to swap in.
+     */
+    File prepareRestore(File backup, File databaseFile, int maxVersion, Progress progress)
+            throws IOException {
+        progress.report(RESTORE_STEP_VERIFY - 1, RESTORE_STEPS);
+        verify(backup, maxVersion);
+
+        // Copied, not moved, the backup stays available for another restore.
+        progress.report(RESTORE_STEP_COPY - 1, RESTORE_STEPS);
+        File restored = new File(databaseFile.getPath() + ".restore");
+        copyFile(backup, restored);
+        return restored;
+    }
+
+    /**
+     * Replace the database file with the given file. The database must be closed: its
+     * write-ahead log and journal are deleted, they belong to the replaced database.
+     */
+    void swap(File restored, File databaseFile) throws IOException {
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            File file = new File(databaseFile.getPath() + suffix);
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Cannot delete " + file);
+            }
+        }
+
+        if (!restored.renameTo(databaseFile)) {
+            throw new IOException("Cannot rename " + restored + " to " + databaseFile);
+        }
+    }
+
+    /**
+     * Copy a file and flush the copy to the disk.
+     */
+    private static void copyFile(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(to);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += inChannel.transferTo(position, size - position, outChannel);
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the version of the SQLite library, e.g. 3027002 for 3.27.2.
+     */
+    private static int getSqliteVersion(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return 0;
+            }
+            String[] parts = cursor.getString(0).split("\\.");
+            int version = 0;
+            for (int i = 0; i < 3; i++) {
+                version = version * 1000 + (i < parts.length ? Integer.parseInt(parts[i]) : 0);
+            }
+            return version;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasTable(SQLiteDatabase db, String schema, String table) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM " + schema + ".sqlite_master"
+                + " WHERE type = 'table' AND name = ?", new String[]{table});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int getVersion(SQLiteDatabase db, String schema) {
+        Cursor cursor = db.rawQuery("PRAGMA " + schema + ".user_version", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package com.example.android.petsshelter.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.petsshelter.data.PetContract.BreedEntry;
+import com.example.android.petsshelter.data.PetContract.EventEntry;
+import com.example.android.petsshelter.data.PetContract.MaintenanceEntry;
 import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.data.PetContract.RecordEntry;
+
+import java.io.File;
 
 public class PetDbHelper extends SQLiteOpenHelper {
 
@@ -15,20 +23,236 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 10;
 
     private static final String SQL_DROP_PETS_TABLE = "DROP TABLE IF EXISTS " + DATABASE_NAME;
 
+    private static final String SQL_CREATE_BREEDS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + BreedEntry.TABLE_NAME + "(" +
+                    BreedEntry.COL_ID + " INTEGER PRIMARY KEY, " +
+                    BreedEntry.COL_BREED_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE)";
+
     private static final String SQL_CREATE_PETS_TABLE =
-            "CREATE TABLE " + PetEntry.TABLE_NAME + "(" +
-                    PetEntry.COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    PetEntry.COL_PET_NAME + " TEXT NOT NULL, " +
-                    PetEntry.COL_PET_BREED + " TEXT, " +
-                    PetEntry.COL_PET_GENDER + " INTEGER NOT NULL, " +
-                    PetEntry.COL_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0)";
+            createPetsTableSql(PetEntry.TABLE_NAME, "INTEGER PRIMARY KEY AUTOINCREMENT");
+
+    /* Same columns as the pets table. The IDs are not auto incremented, archived rows keep the
+     * ID they had in the pets table. */
+    private static final String SQL_CREATE_ARCHIVE_TABLE =
+            createPetsTableSql(PetEntry.ARCHIVE_TABLE_NAME, "INTEGER PRIMARY KEY");
+
+    /* The columns of the pets views, in the order of the old pets table which had the breed
+     * name in place of its ID. */
+    private static final String PETS_VIEW_COLUMNS =
+            "p." + PetEntry.COL_ID + " AS " + PetEntry.COL_ID + ", " +
+                    "p." + PetEntry.COL_PET_NAME + " AS " + PetEntry.COL_PET_NAME + ", " +
+                    "b." + BreedEntry.COL_BREED_NAME + " AS " + PetEntry.COL_PET_BREED + ", " +
+                    "p." + PetEntry.COL_PET_GENDER + " AS " + PetEntry.COL_PET_GENDER + ", " +
+                    "p." + PetEntry.COL_PET_WEIGHT + " AS " + PetEntry.COL_PET_WEIGHT + ", " +
+                    "p." + PetEntry.COL_PET_STATUS + " AS " + PetEntry.COL_PET_STATUS + ", " +
+                    "p." + PetEntry.COL_SHELTER_ID + " AS " + PetEntry.COL_SHELTER_ID + ", " +
+                    "p." + PetEntry.COL_BREED_ID + " AS " + PetEntry.COL_BREED_ID;
+
+    private static final String SQL_CREATE_PETS_VIEW =
+            "CREATE VIEW IF NOT EXISTS " + PetEntry.PETS_VIEW_NAME + " AS " +
+                    selectPetsWithBreedSql(PetEntry.TABLE_NAME);
+
+    private static final String SQL_CREATE_ALL_PETS_VIEW =
+            "CREATE VIEW IF NOT EXISTS " + PetEntry.ALL_PETS_VIEW_NAME + " AS " +
+                    selectPetsWithBreedSql(PetEntry.TABLE_NAME) +
+                    " UNION ALL " +
+                    selectPetsWithBreedSql(PetEntry.ARCHIVE_TABLE_NAME);
+
+    /* Covers the count/average weight by gender queries without touching the table. */
+    private static final String SQL_CREATE_GENDER_WEIGHT_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.INDEX_GENDER_WEIGHT + " ON " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_PET_GENDER + ", " +
+                    PetEntry.COL_PET_WEIGHT + ")";
+
+    /* Per shelter indexes, a shelter's pets are a contiguous range of each one of them. The
+     * first one serves the catalog (sorted by name), the second one the per shelter counts and
+     * weight statistics. */
+    private static final String SQL_CREATE_SHELTER_NAME_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.INDEX_SHELTER_NAME + " ON " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_SHELTER_ID + ", " +
+                    PetEntry.SORT_BY_NAME + ")";
+
+    private static final String SQL_CREATE_SHELTER_GENDER_WEIGHT_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.INDEX_SHELTER_GENDER_WEIGHT + " ON " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_SHELTER_ID + ", " +
+                    PetEntry.COL_PET_GENDER + ", " +
+                    PetEntry.COL_PET_WEIGHT + ")";
+
+    /* Filtering and grouping by breed compare the breed IDs. */
+    private static final String SQL_CREATE_BREED_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.INDEX_BREED + " ON " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_BREED_ID + ")";
+
+    /* Finds the likely duplicates of a pet in a few lookups, and groups them all in a single
+     * pass over the index for the dedup report. */
+    private static final String SQL_CREATE_FINGERPRINT_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.INDEX_FINGERPRINT + " ON " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_FINGERPRINT + ")";
+
+    /* Lets the archiver find the few adopted pets without scanning the table. */
+    private static final String SQL_CREATE_STATUS_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.INDEX_STATUS + " ON " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_PET_STATUS + ")";
+
+    private static final String SQL_CREATE_MAINTENANCE_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + MaintenanceEntry.TABLE_NAME + "(" +
+                    MaintenanceEntry.COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    MaintenanceEntry.COL_RUN_STARTED_AT + " INTEGER NOT NULL, " +
+                    MaintenanceEntry.COL_TASK + " TEXT NOT NULL, " +
+                    MaintenanceEntry.COL_DURATION_MS + " INTEGER NOT NULL, " +
+                    MaintenanceEntry.COL_SUCCESS + " INTEGER NOT NULL, " +
+                    MaintenanceEntry.COL_RESULT + " TEXT)";
+
+    private static final String SQL_CREATE_MAINTENANCE_RUN_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + MaintenanceEntry.INDEX_RUN_STARTED_AT + " ON " +
+                    MaintenanceEntry.TABLE_NAME + "(" +
+                    MaintenanceEntry.COL_RUN_STARTED_AT + ")";
+
+    /* Append-only, rows are never updated. */
+    private static final String SQL_CREATE_EVENTS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + EventEntry.TABLE_NAME + "(" +
+                    EventEntry.COL_ID + " INTEGER PRIMARY KEY, " +
+                    EventEntry.COL_PET_ID + " INTEGER NOT NULL, " +
+                    EventEntry.COL_TIMESTAMP + " INTEGER NOT NULL, " +
+                    EventEntry.COL_TYPE + " INTEGER NOT NULL, " +
+                    EventEntry.COL_VALUE + " INTEGER)";
+
+    /* Holds every column of the events, a timeline is read from the index only. */
+    private static final String SQL_CREATE_EVENTS_TIMELINE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + EventEntry.INDEX_PET_TIMELINE + " ON " +
+                    EventEntry.TABLE_NAME + "(" +
+                    EventEntry.COL_PET_ID + ", " +
+                    EventEntry.COL_TIMESTAMP + ", " +
+                    EventEntry.COL_TYPE + ", " +
+                    EventEntry.COL_VALUE + ")";
+
+    private static final String SQL_CREATE_RECORDS_TABLE =
+            createRecordsTableSql(RecordEntry.TABLE_NAME, PetEntry.TABLE_NAME);
+
+    private static final String SQL_CREATE_RECORDS_ARCHIVE_TABLE =
+            createRecordsTableSql(RecordEntry.ARCHIVE_TABLE_NAME, PetEntry.ARCHIVE_TABLE_NAME);
+
+    /* Serves the records of a pet in date order, and the cascading deletes. With the type, the
+     * latest vaccination of a pet is found from the index only. */
+    private static final String SQL_CREATE_RECORDS_PET_DATE_INDEX =
+            createRecordsIndexSql(RecordEntry.INDEX_PET_DATE, RecordEntry.TABLE_NAME);
+
+    private static final String SQL_CREATE_RECORDS_ARCHIVE_PET_DATE_INDEX =
+            createRecordsIndexSql(RecordEntry.INDEX_ARCHIVE_PET_DATE,
+                    RecordEntry.ARCHIVE_TABLE_NAME);
+
+    private static final String SQL_CREATE_EVENTS_DAILY_TABLE =
+            createRollupTableSql(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY);
+
+    private static final String SQL_CREATE_EVENTS_MONTHLY_TABLE =
+            createRollupTableSql(EventEntry.MONTHLY_TABLE_NAME, EventEntry.COL_MONTH);
+
+    private final PetDbProfile profile;
+
+    // The settings in effect after the profile was applied, null until the database is open.
+    private volatile String profileSettings;
 
     public PetDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        profile = PetDbProfile.getSelected(context);
+    }
+
+    private static String createPetsTableSql(String table, String idDefinition) {
+        return "CREATE TABLE IF NOT EXISTS " + table + "(" +
+                PetEntry.COL_ID + " " + idDefinition + ", " +
+                PetEntry.COL_PET_NAME + " TEXT NOT NULL, " +
+                PetEntry.COL_BREED_ID + " INTEGER, " +
+                PetEntry.COL_PET_GENDER + " INTEGER NOT NULL, " +
+                PetEntry.COL_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0, " +
+                PetEntry.COL_PET_STATUS + " INTEGER NOT NULL DEFAULT 0, " +
+                PetEntry.COL_SHELTER_ID + " INTEGER NOT NULL DEFAULT " +
+                PetEntry.DEFAULT_SHELTER_ID + ", " +
+                PetEntry.COL_FINGERPRINT + " INTEGER)";
+    }
+
+    /* The records belong to a pet of the given table, and are deleted with it. */
+    private static String createRecordsTableSql(String table, String petsTable) {
+        return "CREATE TABLE IF NOT EXISTS " + table + "(" +
+                RecordEntry.COL_ID + " INTEGER PRIMARY KEY, " +
+                RecordEntry.COL_PET_ID + " INTEGER NOT NULL REFERENCES " + petsTable +
+                "(" + PetEntry.COL_ID + ") ON DELETE CASCADE, " +
+                RecordEntry.COL_DATE + " INTEGER NOT NULL, " +
+                RecordEntry.COL_TYPE + " INTEGER NOT NULL, " +
+                RecordEntry.COL_DESCRIPTION + " TEXT)";
+    }
+
+    private static String createRecordsIndexSql(String index, String table) {
+        return "CREATE INDEX IF NOT EXISTS " + index + " ON " + table + "(" +
+                RecordEntry.COL_PET_ID + ", " +
+                RecordEntry.COL_DATE + ", " +
+                RecordEntry.COL_TYPE + ")";
+    }
+
+    /* The primary key (bucket, type) serves the range queries and the incremental updates. */
+    private static String createRollupTableSql(String table, String bucketColumn) {
+        return "CREATE TABLE IF NOT EXISTS " + table + "(" +
+                bucketColumn + " INTEGER NOT NULL, " +
+                EventEntry.COL_TYPE + " INTEGER NOT NULL, " +
+                EventEntry.COL_EVENT_COUNT + " INTEGER NOT NULL, " +
+                EventEntry.COL_VALUE_SUM + " INTEGER NOT NULL, " +
+                "PRIMARY KEY (" + bucketColumn + ", " + EventEntry.COL_TYPE + "))";
+    }
+
+    private static String selectPetsWithBreedSql(String table) {
+        return "SELECT " + PETS_VIEW_COLUMNS + " FROM " + table + " p" +
+                " LEFT JOIN " + BreedEntry.TABLE_NAME + " b" +
+                " ON b." + BreedEntry.COL_ID + " = p." + PetEntry.COL_BREED_ID;
+    }
+
+    /**
+     * Returns the file of the database.
+     */
+    static File getDatabaseFile(Context context) {
+        return context.getDatabasePath(DATABASE_NAME);
+    }
+
+    /**
+     * Returns the profile the database is opened with.
+     */
+    PetDbProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the settings in effect on the connection, see {@link PetDbProfile#apply}, or null
+     * if the database was not opened yet.
+     */
+    String getProfileSettings() {
+        return profileSettings;
+    }
+
+    /**
+     * Enable the foreign keys, which delete the medical records of the deleted pets, and apply
+     * the connection profile. Called before onCreate() and onUpgrade(), the upgrades run with the
+     * profile too.
+     * <p>
+     * The write-ahead log lets the readers of other connections, like a backup, run alongside
+     * the writes. It also gives the pool read-only connections next to the primary one: the
+     * foreign keys apply to every connection, the per connection settings of the profile to the
+     * primary one, which runs the writes and the transactions.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setForeignKeyConstraintsEnabled(true);
+        db.enableWriteAheadLogging();
+        profileSettings = profile.apply(db);
+        Log.i(TAG, "onConfigure: " + profileSettings);
     }
 
     /**
@@ -36,7 +260,27 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_BREEDS_TABLE);
         db.execSQL(SQL_CREATE_PETS_TABLE);
+        db.execSQL(SQL_CREATE_GENDER_WEIGHT_INDEX);
+        db.execSQL(SQL_CREATE_STATUS_INDEX);
+        db.execSQL(SQL_CREATE_SHELTER_NAME_INDEX);
+        db.execSQL(SQL_CREATE_SHELTER_GENDER_WEIGHT_INDEX);
+        db.execSQL(SQL_CREATE_BREED_INDEX);
+        db.execSQL(SQL_CREATE_FINGERPRINT_INDEX);
+        db.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        db.execSQL(SQL_CREATE_PETS_VIEW);
+        db.execSQL(SQL_CREATE_ALL_PETS_VIEW);
+        db.execSQL(SQL_CREATE_MAINTENANCE_TABLE);
+        db.execSQL(SQL_CREATE_MAINTENANCE_RUN_INDEX);
+        db.execSQL(SQL_CREATE_EVENTS_TABLE);
+        db.execSQL(SQL_CREATE_EVENTS_TIMELINE_INDEX);
+        db.execSQL(SQL_CREATE_EVENTS_DAILY_TABLE);
+        db.execSQL(SQL_CREATE_EVENTS_MONTHLY_TABLE);
+        db.execSQL(SQL_CREATE_RECORDS_TABLE);
+        db.execSQL(SQL_CREATE_RECORDS_PET_DATE_INDEX);
+        db.execSQL(SQL_CREATE_RECORDS_ARCHIVE_TABLE);
+        db.execSQL(SQL_CREATE_RECORDS_ARCHIVE_PET_DATE_INDEX);
     }
 
     /**
@@ -44,6 +288,200 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to be done here.
+        /* Each step upgrades the schema by one version, so that a database of any older
+         * version goes through all the steps it is missing. */
+        if (oldVersion < 2) {
+            db.execSQL(SQL_CREATE_GENDER_WEIGHT_INDEX);
+        }
+        if (oldVersion < 3) {
+            // The new column is added last, same as in SQL_CREATE_PETS_TABLE.
+            db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " +
+                    PetEntry.COL_PET_STATUS + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL(SQL_CREATE_STATUS_INDEX);
+            // The view over both tables is created by the version 6 step.
+            db.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        }
+        if (oldVersion < 4) {
+            /* Existing pets belong to the default shelter, in both tables. The archive table
+             * already has the column if it was created by the previous step. */
+            String shelterColumn = PetEntry.COL_SHELTER_ID + " INTEGER NOT NULL DEFAULT " +
+                    PetEntry.DEFAULT_SHELTER_ID;
+            addColumnIfMissing(db, PetEntry.TABLE_NAME, PetEntry.COL_SHELTER_ID, shelterColumn);
+            addColumnIfMissing(db, PetEntry.ARCHIVE_TABLE_NAME, PetEntry.COL_SHELTER_ID,
+                    shelterColumn);
+            db.execSQL(SQL_CREATE_SHELTER_NAME_INDEX);
+            db.execSQL(SQL_CREATE_SHELTER_GENDER_WEIGHT_INDEX);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(SQL_CREATE_MAINTENANCE_TABLE);
+            db.execSQL(SQL_CREATE_MAINTENANCE_RUN_INDEX);
+        }
+        if (oldVersion < 6) {
+            /* The breed names move to the breeds table. Both pet tables are rebuilt without
+             * their breed column, which drops the views and the indexes on them. */
+            db.execSQL("DROP VIEW IF EXISTS " + PetEntry.ALL_PETS_VIEW_NAME);
+            db.execSQL(SQL_CREATE_BREEDS_TABLE);
+
+            BreedDictionary breedDictionary = new BreedDictionary();
+            encodeBreeds(db, breedDictionary, PetEntry.TABLE_NAME, SQL_CREATE_PETS_TABLE);
+            encodeBreeds(db, breedDictionary, PetEntry.ARCHIVE_TABLE_NAME,
+                    SQL_CREATE_ARCHIVE_TABLE);
+
+            db.execSQL(SQL_CREATE_GENDER_WEIGHT_INDEX);
+            db.execSQL(SQL_CREATE_STATUS_INDEX);
+            db.execSQL(SQL_CREATE_SHELTER_NAME_INDEX);
+            db.execSQL(SQL_CREATE_SHELTER_GENDER_WEIGHT_INDEX);
+            db.execSQL(SQL_CREATE_BREED_INDEX);
+            db.execSQL(SQL_CREATE_PETS_VIEW);
+            db.execSQL(SQL_CREATE_ALL_PETS_VIEW);
+        }
+        if (oldVersion < 7) {
+            // The history starts with the upgrade, the existing pets have no events.
+            db.execSQL(SQL_CREATE_EVENTS_TABLE);
+            db.execSQL(SQL_CREATE_EVENTS_TIMELINE_INDEX);
+            db.execSQL(SQL_CREATE_EVENTS_DAILY_TABLE);
+            db.execSQL(SQL_CREATE_EVENTS_MONTHLY_TABLE);
+        }
+        if (oldVersion < 8) {
+            /* Both tables have the same columns. Only the pets in the shelters are checked for
+             * duplicates, the pets archived before the upgrade keep a null fingerprint. */
+            String fingerprintColumn = PetEntry.COL_FINGERPRINT + " INTEGER";
+            addColumnIfMissing(db, PetEntry.TABLE_NAME, PetEntry.COL_FINGERPRINT,
+                    fingerprintColumn);
+            addColumnIfMissing(db, PetEntry.ARCHIVE_TABLE_NAME, PetEntry.COL_FINGERPRINT,
+                    fingerprintColumn);
+            computeFingerprints(db);
+            db.execSQL(SQL_CREATE_FINGERPRINT_INDEX);
+        }
+        if (oldVersion < 9) {
+            db.execSQL(SQL_CREATE_RECORDS_TABLE);
+            db.execSQL(SQL_CREATE_RECORDS_PET_DATE_INDEX);
+            db.execSQL(SQL_CREATE_RECORDS_ARCHIVE_TABLE);
+            db.execSQL(SQL_CREATE_RECORDS_ARCHIVE_PET_DATE_INDEX);
+        }
+        if (oldVersion < 10) {
+            // The catalog sorts the names ignoring their case, the index is rebuilt to match.
+            db.execSQL("DROP INDEX IF EXISTS " + PetEntry.INDEX_SHELTER_NAME);
+            db.execSQL(SQL_CREATE_SHELTER_NAME_INDEX);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of every pet, see {@link PetFingerprint}.
+     */
+    private static void computeFingerprints(SQLiteDatabase db) {
+        PetStatements statements = new PetStatements();
+        Cursor cursor = db.query(PetEntry.PETS_VIEW_NAME, new String[]{
+                PetEntry.COL_ID,
+                PetEntry.COL_PET_NAME,
+                PetEntry.COL_PET_BREED,
+                PetEntry.COL_PET_GENDER,
+                PetEntry.COL_PET_WEIGHT
+        }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                statements.updateFingerprint(db, cursor.getLong(0), PetFingerprint.of(
+                        cursor.getString(1), cursor.getString(2), cursor.getInt(3),
+                        cursor.getInt(4)));
+            }
+        } finally {
+            cursor.close();
+            statements.close();
+        }
+    }
+
+    /**
+     * Replace the breed names of the given pets table by the IDs of the breeds, then rebuild
+     * the table with the given statement, without the breed name column.
+     * <p>
+     * Does nothing if the table has no breed name column, i.e. it was created by an earlier step
+     * of the same upgrade.
+     */
+    private static void encodeBreeds(SQLiteDatabase db, BreedDictionary breedDictionary,
+                                     String table, String createTableSql) {
+        if (!hasColumn(db, table, PetEntry.COL_PET_BREED)) {
+            return;
+        }
+
+        addColumnIfMissing(db, table, PetEntry.COL_BREED_ID,
+                PetEntry.COL_BREED_ID + " INTEGER");
+
+        Cursor cursor = db.query(true, table, new String[]{PetEntry.COL_PET_BREED},
+                PetEntry.COL_PET_BREED + " NOT NULL", null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String breed = cursor.getString(0);
+                Long breedId = breedDictionary.resolve(db, breed);
+                if (breedId != null) {
+                    db.execSQL("UPDATE " + table + " SET " + PetEntry.COL_BREED_ID + "=?" +
+                                    " WHERE " + PetEntry.COL_PET_BREED + "=?",
+                            new Object[]{breedId, breed});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The AUTOINCREMENT counter is kept, the IDs of deleted pets are never reused.
+        long sequence = -1;
+        Cursor sequenceCursor = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[]{table});
+        try {
+            if (sequenceCursor.moveToFirst()) {
+                sequence = sequenceCursor.getLong(0);
+            }
+        } finally {
+            sequenceCursor.close();
+        }
+
+        String columns = PetEntry.COL_ID + ", " +
+                PetEntry.COL_PET_NAME + ", " +
+                PetEntry.COL_BREED_ID + ", " +
+                PetEntry.COL_PET_GENDER + ", " +
+                PetEntry.COL_PET_WEIGHT + ", " +
+                PetEntry.COL_PET_STATUS + ", " +
+                PetEntry.COL_SHELTER_ID;
+
+        /* The medical records tables, whose foreign keys would follow the rename, are only
+         * created by a later step. */
+        String oldTable = table + "_old";
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + oldTable);
+        db.execSQL(createTableSql);
+        db.execSQL("INSERT INTO " + table + "(" + columns + ") " +
+                "SELECT " + columns + " FROM " + oldTable);
+        db.execSQL("DROP TABLE " + oldTable);
+
+        if (sequence != -1) {
+            db.execSQL("UPDATE sqlite_sequence SET seq = ? WHERE name = ?",
+                    new Object[]{sequence, table});
+        }
+    }
+
+    /**
+     * Add a column to the given table, unless the table already has it.
+     * <p>
+     * Tables created during an upgrade step (e.g. the archive table) are created with the
+     * latest columns, so the later steps must not add them again.
+     */
+    private static void addColumnIfMissing(SQLiteDatabase db, String table, String column,
+                                           String columnDefinition) {
+        if (!hasColumn(db, table, column)) {
+            db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + columnDefinition);
+        }
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameColumn = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameColumn))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
     }
 }
@@ -0,0 +1,246 @@
+package com.example.android.petsshelter.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.petsshelter.data.PetContract.MaintenanceEntry;
+
+/**
+ * Database maintenance: refreshes the statistics of the query planner, checkpoints the WAL and,
+ * when asked for, checks the integrity of the database within a time limit.
+ * <p>
+ * Every task of a run is recorded in the maintenance log with its duration and its result, so
+ * that the maintenance can be related to the query latencies. A run can be cancelled, see
+ * {@link #cancel()}.
+ */
+class PetDbMaintenance {
+
+    private static final String TAG = PetDbMaintenance.class.getSimpleName();
+
+    // The integrity check is interrupted after this time, it can be long on a big database.
+    static final long INTEGRITY_CHECK_TIMEOUT_MS = 10000;
+
+    // Max number of problems reported by the integrity check.
+    private static final int INTEGRITY_CHECK_MAX_ERRORS = 10;
+
+    /* Result of the task running when the run is cancelled, and of the tasks skipped after it.
+     * A run with a cancelled task doesn't count as done. */
+    private static final String RESULT_CANCELLED = "cancelled";
+
+    private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+
+    // The signal of the task running, if any, cancelled by cancel().
+    private volatile CancellationSignal taskSignal;
+
+    /* Whether the run was cancelled, its remaining tasks are skipped. Cleared when the run ends,
+     * a cancel that comes before the run starts skips the whole run. */
+    private volatile boolean cancelled;
+
+    /**
+     * Run the maintenance, unless the previous run is more recent than the given interval. With
+     * the integrity check, the interval is counted from the previous run that checked the
+     * integrity.
+     *
+     * @return whether the maintenance ran.
+     */
+    synchronized boolean runIfDue(SQLiteDatabase db, long minIntervalMs,
+                                  boolean checkIntegrity) {
+        long lastRun = getLastRunTime(db, checkIntegrity
+                ? MaintenanceEntry.TASK_INTEGRITY_CHECK : MaintenanceEntry.TASK_ANALYZE);
+        if (lastRun > 0 && System.currentTimeMillis() - lastRun < minIntervalMs) {
+            Log.i(TAG, "runIfDue: skipped, last run at " + lastRun);
+            return false;
+        }
+
+        run(db, checkIntegrity);
+        return true;
+    }
+
+    /**
+     * Run the maintenance tasks and record their results, the integrity check only if asked
+     * for: it reads the whole database.
+     */
+    synchronized void run(SQLiteDatabase db, boolean checkIntegrity) {
+        try {
+            runTasks(db, checkIntegrity);
+        } finally {
+            cancelled = false;
+        }
+    }
+
+    private void runTasks(SQLiteDatabase db, boolean checkIntegrity) {
+        long runStartedAt = System.currentTimeMillis();
+
+        runTask(db, runStartedAt, MaintenanceEntry.TASK_ANALYZE, new Task() {
+            @Override
+            public String run(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+                db.execSQL("ANALYZE");
+                return null;
+            }
+        });
+
+        runTask(db, runStartedAt, MaintenanceEntry.TASK_OPTIMIZE, new Task() {
+            @Override
+            public String run(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+                // A no-op on SQLite versions that don't know this pragma.
+                return queryPragma(db, "PRAGMA optimize", cancellationSignal);
+            }
+        });
+
+        runTask(db, runStartedAt, MaintenanceEntry.TASK_WAL_CHECKPOINT, new Task() {
+            @Override
+            public String run(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+                // busy|log frames|checkpointed frames, -1 for the frames if not in WAL mode.
+                return queryPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)", cancellationSignal);
+            }
+        });
+
+        if (checkIntegrity) {
+            runTask(db, runStartedAt, MaintenanceEntry.TASK_INTEGRITY_CHECK, new Task() {
+                @Override
+                public String run(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+                    return checkIntegrity(db, cancellationSignal);
+                }
+            });
+        }
+    }
+
+    /**
+     * Interrupt the task running and skip the remaining tasks of the run, if a run is going.
+     * Can be called from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+        CancellationSignal signal = taskSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
+    }
+
+    /**
+     * Returns the start time of the latest run of the given task that wasn't cancelled, or 0 if
+     * there's none.
+     */
+    long getLastRunTime(SQLiteDatabase db, String taskName) {
+        Cursor cursor = db.query(MaintenanceEntry.TABLE_NAME,
+                new String[]{"MAX(" + MaintenanceEntry.COL_RUN_STARTED_AT + ")"},
+                MaintenanceEntry.COL_TASK + " = ? AND "
+                        + MaintenanceEntry.COL_RUN_STARTED_AT + " NOT IN (SELECT "
+                        + MaintenanceEntry.COL_RUN_STARTED_AT + " FROM "
+                        + MaintenanceEntry.TABLE_NAME + " WHERE "
+                        + MaintenanceEntry.COL_RESULT + " = ?)",
+                new String[]{taskName, RESULT_CANCELLED}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private interface Task {
+        /**
+         * Run the task and return its output, if any. The signal is cancelled to interrupt it.
+         */
+        String run(SQLiteDatabase db, CancellationSignal cancellationSignal);
+    }
+
+    private void runTask(SQLiteDatabase db, long runStartedAt, String taskName, Task task) {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        // Set before the check, a concurrent cancel() either sees the signal or is seen here.
+        taskSignal = cancellationSignal;
+
+        long start = SystemClock.elapsedRealtime();
+        boolean success = true;
+        String result;
+        try {
+            // Skipped tasks are logged too, the run must not look complete.
+            if (cancelled) {
+                throw new OperationCanceledException();
+            }
+            result = task.run(db, cancellationSignal);
+        } catch (OperationCanceledException e) {
+            success = false;
+            result = cancelled ? RESULT_CANCELLED : "interrupted";
+        } catch (SQLException e) {
+            success = false;
+            result = e.getMessage();
+            Log.e(TAG, "runTask: " + taskName + " failed", e);
+        } finally {
+            taskSignal = null;
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "runTask: " + taskName + " took " + duration + " ms -> " + result);
+
+        ContentValues values = new ContentValues();
+        values.put(MaintenanceEntry.COL_RUN_STARTED_AT, runStartedAt);
+        values.put(MaintenanceEntry.COL_TASK, taskName);
+        values.put(MaintenanceEntry.COL_DURATION_MS, duration);
+        values.put(MaintenanceEntry.COL_SUCCESS, success ? 1 : 0);
+        values.put(MaintenanceEntry.COL_RESULT, result);
+        db.insert(MaintenanceEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Run the integrity check, interrupting it after {@link #INTEGRITY_CHECK_TIMEOUT_MS}.
+     * <p>
+     * The check runs on its own read-only connection, in a read transaction of the write-ahead
+     * log: the provider keeps serving reads and writes meanwhile.
+     *
+     * @return "ok", or the problems found separated by new lines.
+     */
+    private String checkIntegrity(SQLiteDatabase db, final CancellationSignal cancellationSignal) {
+        Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                cancellationSignal.cancel();
+            }
+        };
+
+        SQLiteDatabase checkedDb = SQLiteDatabase.openDatabase(db.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        timeoutHandler.postDelayed(timeout, INTEGRITY_CHECK_TIMEOUT_MS);
+        try {
+            return queryPragma(checkedDb,
+                    "PRAGMA integrity_check(" + INTEGRITY_CHECK_MAX_ERRORS + ")",
+                    cancellationSignal);
+        } finally {
+            timeoutHandler.removeCallbacks(timeout);
+            checkedDb.close();
+        }
+    }
+
+    /**
+     * Run a pragma and return all the rows it returns, with the columns separated by '|' and the
+     * rows by new lines.
+     */
+    private static String queryPragma(SQLiteDatabase db, String pragma,
+                                      CancellationSignal cancellationSignal) {
+        Cursor cursor = db.rawQuery(pragma, null, cancellationSignal);
+        try {
+            StringBuilder result = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (result.length() > 0) {
+                    result.append('\n');
+                }
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    if (i > 0) {
+                        result.append('|');
+                    }
+                    result.append(cursor.getString(i));
+                }
+            }
+            return result.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
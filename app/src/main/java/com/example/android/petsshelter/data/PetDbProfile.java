@@ -0,0 +1,152 @@
+package com.example.android.petsshelter.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A tuning profile of the SQLite connection: page cache, memory-mapped reads, temporary storage
+ * and sync level, applied by {@link PetDbHelper} when it opens the database.
+ * <p>
+ * The settings apply to each open, on the primary connection, see
+ * {@link PetDbHelper#onConfigure(SQLiteDatabase)}. The page size is not part of a profile:
+ * Android writes android_metadata when it opens the database, before the profile can apply, and
+ * the page size of a database in write-ahead log mode can't change. The profile in use is
+ * remembered, see {@link #getSelected(Context)}.
+ */
+public final class PetDbProfile {
+
+    private static final String PREFS_NAME = "db_profile";
+    private static final String KEY_PROFILE_NAME = "profile_name";
+
+    // Values of PRAGMA temp_store.
+    private static final int TEMP_STORE_FILE = 1;
+    private static final int TEMP_STORE_MEMORY = 2;
+
+    // Values of PRAGMA synchronous.
+    private static final int SYNCHRONOUS_NORMAL = 1;
+    private static final int SYNCHRONOUS_FULL = 2;
+
+    /* Smallest footprint: a small page cache, no memory map, temporary tables on disk and a
+     * sync at every commit. */
+    public static final PetDbProfile LOW_MEMORY = new PetDbProfile("low_memory",
+            512, 0, TEMP_STORE_FILE, SYNCHRONOUS_FULL);
+
+    /* The default: the SQLite default page cache, the catalog sized part of the file mapped. */
+    public static final PetDbProfile BALANCED = new PetDbProfile("balanced",
+            2048, 32L * 1024 * 1024, TEMP_STORE_MEMORY, SYNCHRONOUS_NORMAL);
+
+    /* A large page cache and the whole file mapped, for bulk imports and reports. */
+    public static final PetDbProfile THROUGHPUT = new PetDbProfile("throughput",
+            8192, 256L * 1024 * 1024, TEMP_STORE_MEMORY, SYNCHRONOUS_NORMAL);
+
+    /**
+     * Every profile, from the smallest footprint to the fastest.
+     */
+    public static final List<PetDbProfile> ALL =
+            Collections.unmodifiableList(Arrays.asList(LOW_MEMORY, BALANCED, THROUGHPUT));
+
+    private final String name;
+    private final int cacheSizeKib;
+    private final long mmapSize;
+    private final int tempStore;
+    private final int synchronous;
+
+    private PetDbProfile(String name, int cacheSizeKib, long mmapSize, int tempStore,
+                         int synchronous) {
+        this.name = name;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.synchronous = synchronous;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the profile with the given name.
+     *
+     * @throws IllegalArgumentException if there's no such profile.
+     */
+    public static PetDbProfile forName(String name) {
+        for (PetDbProfile profile : ALL) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown database profile " + name);
+    }
+
+    /**
+     * Returns the profile the database is opened with, {@link #BALANCED} until another one is
+     * selected.
+     */
+    public static PetDbProfile getSelected(Context context) {
+        String name = getPreferences(context).getString(KEY_PROFILE_NAME, BALANCED.name);
+        try {
+            return forName(name);
+        } catch (IllegalArgumentException e) {
+            // A profile removed since it was selected.
+            return BALANCED;
+        }
+    }
+
+    /**
+     * Remember the profile to open the database with. The provider applies it by reopening the
+     * database, see {@link PetContract#METHOD_SET_DB_PROFILE}.
+     */
+    static void setSelected(Context context, PetDbProfile profile) {
+        getPreferences(context).edit().putString(KEY_PROFILE_NAME, profile.name).apply();
+    }
+
+    /**
+     * Apply the profile to the given connection, before anything else reads the database.
+     *
+     * @return the settings in effect, which may differ from the profile: SQLite caps the memory
+     * map to what the platform allows. The page size of the database is reported with them.
+     */
+    String apply(SQLiteDatabase db) {
+        // Negative cache sizes are in KiB, independent of the page size.
+        db.execSQL("PRAGMA cache_size = " + -cacheSizeKib);
+        db.execSQL("PRAGMA temp_store = " + tempStore);
+        db.execSQL("PRAGMA synchronous = " + synchronous);
+        // Returns the new size, which execSQL() refuses.
+        queryPragma(db, "PRAGMA mmap_size = " + mmapSize);
+
+        return String.format(Locale.US,
+                "%s: page_size=%d cache_size=%d mmap_size=%d temp_store=%d synchronous=%d",
+                name,
+                queryPragma(db, "PRAGMA page_size"),
+                queryPragma(db, "PRAGMA cache_size"),
+                queryPragma(db, "PRAGMA mmap_size"),
+                queryPragma(db, "PRAGMA temp_store"),
+                queryPragma(db, "PRAGMA synchronous"));
+    }
+
+    private static long queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.petsshelter.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import com.example.android.petsshelter.data.PetContract.EventEntry;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The append-only log of the pet events and its daily and monthly rollups, see
+ * {@link EventEntry}.
+ * <p>
+ * Range summaries add up the monthly rollups of the months fully inside the range and the
+ * daily rollups of the days before and after them, so a summary reads at most about 60 daily
+ * rows plus one row per month, whatever the size of the log.
+ */
+class PetEventLog {
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final PetStatements petStatements;
+
+    PetEventLog(PetStatements petStatements) {
+        this.petStatements = petStatements;
+    }
+
+    /**
+     * Append an event and count it in its rollups. Must be called in a transaction, so the log
+     * and the rollups are always in sync.
+     */
+    void append(SQLiteDatabase db, long petId, int type, Long value, long timestamp) {
+        if (!db.inTransaction()) {
+            throw new IllegalStateException("Events are appended in a transaction");
+        }
+
+        long day = dayOf(timestamp);
+        long rolledUpValue = value == null ? 0 : value;
+
+        petStatements.insertEvent(db, petId, timestamp, type, value);
+        petStatements.addToDailyRollup(db, day, type, rolledUpValue);
+        petStatements.addToMonthlyRollup(db, monthOf(day), type, rolledUpValue);
+    }
+
+    /**
+     * Query the totals per event type (count and value sum) of the events between the given
+     * times, both inclusive, from the rollups only.
+     */
+    Cursor querySummary(SQLiteDatabase db, long from, long to,
+                        CancellationSignal cancellationSignal) {
+        long fromDay = dayOf(from);
+        long toDay = dayOf(to);
+
+        // The months that are fully inside the range.
+        long firstMonth = monthOf(fromDay);
+        if (firstDayOfMonth(firstMonth) != fromDay) {
+            firstMonth++;
+        }
+        long lastMonth = monthOf(toDay);
+        if (firstDayOfMonth(lastMonth + 1) - 1 != toDay) {
+            lastMonth--;
+        }
+
+        String[] args;
+        if (firstMonth > lastMonth) {
+            args = new String[]{String.valueOf(fromDay), String.valueOf(toDay)};
+        } else {
+            args = new String[]{
+                    String.valueOf(fromDay), String.valueOf(firstDayOfMonth(firstMonth) - 1),
+                    String.valueOf(firstMonth), String.valueOf(lastMonth),
+                    String.valueOf(firstDayOfMonth(lastMonth + 1)), String.valueOf(toDay)
+            };
+        }
+
+        return db.rawQuery(summarySql(firstMonth <= lastMonth), args, cancellationSignal);
+    }
+
+    /**
+     * Returns the query of {@link #querySummary}, over the daily rollups of the range only, or
+     * with the full months of the range from the monthly rollups. The arguments are the first
+     * and last bucket of each part.
+     */
+    static String summarySql(boolean fullMonths) {
+        String rollups;
+        if (!fullMonths) {
+            // No full month, the days only.
+            rollups = selectRollupSql(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY);
+        } else {
+            // The days before the first full month, the full months, the days after the last.
+            rollups = selectRollupSql(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY) +
+                    " UNION ALL " +
+                    selectRollupSql(EventEntry.MONTHLY_TABLE_NAME, EventEntry.COL_MONTH) +
+                    " UNION ALL " +
+                    selectRollupSql(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY);
+        }
+
+        return "SELECT " + EventEntry.COL_TYPE + ", " +
+                "SUM(" + EventEntry.COL_EVENT_COUNT + ") AS " + EventEntry.COL_EVENT_COUNT + ", " +
+                "SUM(" + EventEntry.COL_VALUE_SUM + ") AS " + EventEntry.COL_VALUE_SUM +
+                " FROM (" + rollups + ")" +
+                " GROUP BY " + EventEntry.COL_TYPE +
+                " ORDER BY " + EventEntry.COL_TYPE;
+    }
+
+    private static String selectRollupSql(String table, String bucketColumn) {
+        return "SELECT " + EventEntry.COL_TYPE + ", " +
+                EventEntry.COL_EVENT_COUNT + ", " +
+                EventEntry.COL_VALUE_SUM +
+                " FROM " + table +
+                " WHERE " + PetProvider.rollupsSelection(bucketColumn);
+    }
+
+    /**
+     * Returns the UTC day of the given time, in days since epoch.
+     */
+    static long dayOf(long timestamp) {
+        // Rounded down, also for the times before epoch.
+        long day = timestamp / DAY_MS;
+        return timestamp % DAY_MS < 0 ? day - 1 : day;
+    }
+
+    /**
+     * Returns the month of the given day, in months since January 1970.
+     */
+    static long monthOf(long day) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(day * DAY_MS);
+        return (calendar.get(Calendar.YEAR) - 1970) * 12L + calendar.get(Calendar.MONTH);
+    }
+
+    /**
+     * Returns the first day of the given month, in days since epoch.
+     */
+    static long firstDayOfMonth(long month) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set((int) (1970 + Math.floor(month / 12.0)), (int) (((month % 12) + 12) % 12), 1);
+        return dayOf(calendar.getTimeInMillis());
+    }
+}
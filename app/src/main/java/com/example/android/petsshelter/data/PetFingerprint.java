@@ -0,0 +1,81 @@
+package com.example.android.petsshelter.data;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The fingerprint of a pet, used to spot the pets registered twice.
+ * <p>
+ * It is a 64-bit hash of the normalized name and breed (lower case, without accents,
+ * punctuation nor extra white space), the gender and the weight rounded down to a bucket of
+ * {@link #WEIGHT_BUCKET}. Two pets with the same fingerprint are likely the same animal, the
+ * pets table has an index on it so that the candidates are found without a scan.
+ */
+final class PetFingerprint {
+
+    // Weights are compared by buckets of this size, a pet weighed twice rarely weighs the same.
+    static final int WEIGHT_BUCKET = 5;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // FNV-1a 64-bit parameters.
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private PetFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of the given pet.
+     */
+    static long of(String name, String breed, int gender, int weight) {
+        return hash(name, breed, gender, bucketOf(weight));
+    }
+
+    /**
+     * Returns the fingerprints a duplicate of the given pet may have: its own and the ones of
+     * the neighbour weight buckets, so that 9 and 10 still match across a bucket boundary.
+     */
+    static long[] candidatesOf(String name, String breed, int gender, int weight) {
+        int bucket = bucketOf(weight);
+        return new long[]{
+                hash(name, breed, gender, bucket - 1),
+                hash(name, breed, gender, bucket),
+                hash(name, breed, gender, bucket + 1)
+        };
+    }
+
+    /**
+     * Returns the given text in lower case, without accents, and with words separated by a
+     * single space. Null is the empty string.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String plain = MARKS.matcher(decomposed).replaceAll("");
+        return SEPARATORS.matcher(plain.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    private static int bucketOf(int weight) {
+        return weight / WEIGHT_BUCKET;
+    }
+
+    private static long hash(String name, String breed, int gender, int bucket) {
+        // The fields are separated by a character that normalize() never keeps.
+        String key = normalize(name) + '|' + normalize(breed) + '|' + gender + '|' + bucket;
+
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
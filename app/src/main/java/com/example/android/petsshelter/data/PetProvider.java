@@ -1,19 +1,43 @@
 package com.example.android.petsshelter.data;
 
+import static com.example.android.petsshelter.data.PetContract.EventEntry;
+import static com.example.android.petsshelter.data.PetContract.MaintenanceEntry;
 import static com.example.android.petsshelter.data.PetContract.PetEntry;
+import static com.example.android.petsshelter.data.PetContract.RecordEntry;
 
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.example.android.petsshelter.debug.DebugInstrumentation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * {@link ContentProvider} for Pets app.
  */
@@ -24,6 +48,17 @@ public class PetProvider extends ContentProvider {
     // Codes/Paths for each URI pattern case.
     private static final int PETS = 100;    // performing an operation on the whole pets table
     private static final int PET_ID = 101;  // performing an operation on a single row by ID
+    private static final int PETS_INCLUDE_ARCHIVED = 102;   // pets and archived pets
+    private static final int PET_ID_INCLUDE_ARCHIVED = 103; // a single pet, even if archived
+    private static final int SHELTER_PETS = 104;    // the pets of a single shelter
+    private static final int SHELTER_SECTIONS = 105;    // the name sections of a shelter
+    private static final int PET_EVENTS = 106;      // the timeline of a single pet
+    private static final int PET_RECORDS = 107;     // the medical records of a single pet
+    private static final int PET_RECORD_ID = 108;   // a single medical record of a pet
+    private static final int MAINTENANCE_LOG = 200; // reading the maintenance log
+    private static final int EVENTS_DAILY = 300;    // the daily rollups of the events
+    private static final int EVENTS_MONTHLY = 301;  // the monthly rollups of the events
+    private static final int EVENTS_SUMMARY = 302;  // the event totals over a time range
 
     private static final UriMatcher uriMatcher =
             new UriMatcher(UriMatcher.NO_MATCH);
@@ -42,9 +77,157 @@ public class PetProvider extends ContentProvider {
                 PetContract.CONTENT_AUTHORITY,
                 PetContract.PATH_PETS + "/#",
                 PET_ID);
+
+        // Uri for querying the pets together with the archived (adopted) pets.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_INCLUDE_ARCHIVED,
+                PETS_INCLUDE_ARCHIVED);
+
+        // Uri for querying a single pet by ID, wherever it is stored.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_INCLUDE_ARCHIVED + "/#",
+                PET_ID_INCLUDE_ARCHIVED);
+
+        // Uri for performing operation on the pets of a single shelter, given by its ID.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SHELTER + "/#",
+                SHELTER_PETS);
+
+        // Uri for reading the alphabetical sections of the pets of a single shelter.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SHELTER + "/#/" +
+                        PetContract.PATH_SECTIONS,
+                SHELTER_SECTIONS);
+
+        // Uri for reading the events of a single pet, given by its ID, in time order.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_EVENTS,
+                PET_EVENTS);
+
+        // Uris for the medical records of a single pet, and for one of them by ID.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_RECORDS,
+                PET_RECORDS);
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_RECORDS + "/#",
+                PET_RECORD_ID);
+
+        // Uris for reading the rollups of the events, and the totals over a time range.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_EVENTS + "/" + PetContract.PATH_DAILY,
+                EVENTS_DAILY);
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_EVENTS + "/" + PetContract.PATH_MONTHLY,
+                EVENTS_MONTHLY);
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_EVENTS + "/" + PetContract.PATH_SUMMARY,
+                EVENTS_SUMMARY);
+
+        // Uri for reading the results of the database maintenance runs.
+        uriMatcher.addURI(
+                PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_MAINTENANCE,
+                MAINTENANCE_LOG);
     }
 
-    private PetDbHelper petDbHelper;
+    /* The last vaccination of each pet of a pets view query, one lookup in the records index per
+     * pet, from the latest record backwards, in the same statement as the pets. */
+    static final String LAST_VACCINATION_SQL =
+            "(SELECT r." + RecordEntry.COL_DATE + " FROM " + RecordEntry.TABLE_NAME + " r" +
+                    " WHERE r." + RecordEntry.COL_PET_ID + " = " +
+                    PetEntry.PETS_VIEW_NAME + "." + PetEntry.COL_ID +
+                    " AND r." + RecordEntry.COL_TYPE + " = " + RecordEntry.TYPE_VACCINATION +
+                    " ORDER BY r." + RecordEntry.COL_DATE + " DESC LIMIT 1)" +
+                    " AS " + PetEntry.COL_LAST_VACCINATION;
+
+    // The selection of a single pet by ID.
+    static final String SELECTION_BY_ID = PetEntry.COL_ID + "=?";
+
+    // The order of the medical records, unless the caller gives one: the latest first.
+    static final String RECORDS_SORT_ORDER = RecordEntry.COL_DATE + " DESC";
+
+    /* The columns of the sections URI, and their grouping and order: a single pass with the
+     * collation of the list. */
+    static final String[] SECTIONS_PROJECTION = {
+            "UPPER(SUBSTR(" + PetEntry.COL_PET_NAME + ", 1, 1)) AS " + PetEntry.COL_SECTION,
+            "COUNT(*) AS " + PetEntry.COL_SECTION_COUNT
+    };
+    static final String SECTIONS_ORDER = PetEntry.COL_SECTION + " COLLATE NOCASE";
+
+    /* The pets that share their fingerprint with another pet, grouped by fingerprint. The
+     * subquery finds the shared fingerprints in a single pass over the fingerprint index. */
+    static final String DEDUP_REPORT_SQL =
+            "SELECT " + PetEntry.COL_FINGERPRINT + ", " + PetEntry.COL_ID +
+                    " FROM " + PetEntry.TABLE_NAME +
+                    " WHERE " + PetEntry.COL_FINGERPRINT + " IN (" +
+                    "SELECT " + PetEntry.COL_FINGERPRINT + " FROM " + PetEntry.TABLE_NAME +
+                    " WHERE " + PetEntry.COL_FINGERPRINT + " NOT NULL" +
+                    " GROUP BY " + PetEntry.COL_FINGERPRINT + " HAVING COUNT(*) > 1)" +
+                    " ORDER BY " + PetEntry.COL_FINGERPRINT + ", " + PetEntry.COL_ID;
+
+    // The columns insertPet() writes through the compiled insert statement.
+    private static final Set<String> INSERT_COLUMNS = new HashSet<>(Arrays.asList(
+            PetEntry.COL_PET_NAME,
+            PetEntry.COL_PET_BREED,
+            PetEntry.COL_PET_GENDER,
+            PetEntry.COL_PET_WEIGHT,
+            PetEntry.COL_PET_STATUS,
+            PetEntry.COL_SHELTER_ID));
+
+    // Max number of host parameters in a single statement, SQLite's default limit is 999.
+    private static final int MAX_SQL_VARIABLES = 500;
+
+    // Default time window during which change notifications are coalesced.
+    private static final long DEFAULT_NOTIFICATION_WINDOW_MS = 100;
+
+    // Memory limit of the cached query results.
+    private static final int QUERY_CACHE_BYTES = 1024 * 1024;
+
+    // Default backup file, relative to the app files directory.
+    private static final String DEFAULT_BACKUP_PATH = "backups/shelter.db";
+
+    // Replaced by a new helper when the database is restored or gets another profile.
+    private volatile PetDbHelper petDbHelper;
+
+    /* Held for reading by every operation on the database, and for writing while the helper is
+     * replaced: the old helper is only closed once no operation uses it. */
+    private final ReentrantReadWriteLock dbLock = new ReentrantReadWriteLock();
+
+    private ChangeNotifier changeNotifier;
+
+    private final PetColumnarSnapshot columnarSnapshot = PetColumnarSnapshot.getInstance();
+
+    private final PetQueryCache queryCache = new PetQueryCache(QUERY_CACHE_BYTES);
+
+    private final PetArchiver petArchiver = new PetArchiver();
+
+    private final PetDbMaintenance dbMaintenance = new PetDbMaintenance();
+
+    private final PetDbBackup dbBackup = new PetDbBackup();
+
+    private final BreedDictionary breedDictionary = new BreedDictionary();
+
+    private final PetStatements petStatements = new PetStatements();
+
+    private final PetEventLog eventLog = new PetEventLog(petStatements);
+
+    private final PetWriter petWriter = new PetWriter(this);
+
+    // Runs the archiver off the calling threads.
+    private final ExecutorService archiveExecutor = Executors.newSingleThreadExecutor();
+
+    // Whether an archiver run is already waiting in the executor.
+    private final AtomicBoolean archivePending = new AtomicBoolean(false);
 
     /**
      * Initialize the provider and the database helper object.
@@ -52,6 +235,11 @@ public class PetProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         petDbHelper = new PetDbHelper(getContext());
+        changeNotifier = new ChangeNotifier(
+                getContext().getContentResolver(), DEFAULT_NOTIFICATION_WINDOW_MS);
+
+        // Pick up the pets adopted since the last run.
+        scheduleArchive();
         return true;
     }
 
@@ -64,22 +252,127 @@ public class PetProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
                         @Nullable String selection, @Nullable String[] selectionArgs,
                         @Nullable String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, like {@link #query(Uri, String[], String, String[],
+     * String)}.
+     * <p>
+     * The cancellation signal is passed down to SQLite: cancelling it interrupts the statement,
+     * either while the query is prepared or while the cursor fills its window, and the caller
+     * gets an {@link android.os.OperationCanceledException}.
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
+                        @Nullable String selection, @Nullable String[] selectionArgs,
+                        @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
+        DebugInstrumentation.noteDatabaseAccess("query " + uri);
+
+        dbLock.readLock().lock();
+        try {
+            return queryLocked(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        } finally {
+            dbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Perform the query, with the read lock of the database held.
+     */
+    private Cursor queryLocked(Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder,
+                               CancellationSignal cancellationSignal) {
         Cursor cursor;
         final int match = uriMatcher.match(uri);
         switch (match) {
             case PETS:
-                cursor = queryPets(
-                        projection, selection,
-                        selectionArgs, sortOrder);
+                cursor = queryPetList(
+                        PetEntry.PETS_VIEW_NAME, withComputedColumns(projection), selection,
+                        selectionArgs, sortOrder, cancellationSignal);
                 break;
 
             case PET_ID:
-                selection = PetEntry.COL_ID + "=?";
+                selection = SELECTION_BY_ID;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                cursor = queryPets(
+                        PetEntry.PETS_VIEW_NAME, withComputedColumns(projection), selection,
+                        selectionArgs, null, cancellationSignal);
+                break;
+
+            case SHELTER_PETS:
+                cursor = queryPetList(
+                        PetEntry.PETS_VIEW_NAME, withComputedColumns(projection),
+                        shelterSelection(selection), shelterSelectionArgs(uri, selectionArgs),
+                        sortOrder, cancellationSignal);
+                break;
+
+            case PET_RECORDS:
+            case PET_RECORD_ID:
+                cursor = queryPets(
+                        RecordEntry.TABLE_NAME, projection, recordsSelection(uri, selection),
+                        recordsSelectionArgs(uri, selectionArgs),
+                        sortOrder == null ? RECORDS_SORT_ORDER : sortOrder,
+                        cancellationSignal);
+                break;
+
+            case SHELTER_SECTIONS:
+                cursor = querySections(uri, cancellationSignal);
+                break;
+
+            case PET_EVENTS:
+                cursor = queryPets(
+                        EventEntry.TABLE_NAME, projection, eventsSelection(selection),
+                        eventsSelectionArgs(uri, selectionArgs),
+                        EventEntry.COL_TIMESTAMP, cancellationSignal);
+                break;
+
+            case EVENTS_DAILY:
+                cursor = queryRollups(uri, EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY,
+                        PetEventLog.dayOf(getRangeParameter(uri, PetContract.QUERY_PARAM_FROM)),
+                        PetEventLog.dayOf(getRangeParameter(uri, PetContract.QUERY_PARAM_TO)),
+                        projection, cancellationSignal);
+                break;
+
+            case EVENTS_MONTHLY:
+                cursor = queryRollups(uri, EventEntry.MONTHLY_TABLE_NAME, EventEntry.COL_MONTH,
+                        PetEventLog.monthOf(PetEventLog.dayOf(
+                                getRangeParameter(uri, PetContract.QUERY_PARAM_FROM))),
+                        PetEventLog.monthOf(PetEventLog.dayOf(
+                                getRangeParameter(uri, PetContract.QUERY_PARAM_TO))),
+                        projection, cancellationSignal);
+                break;
+
+            case EVENTS_SUMMARY:
+                cursor = eventLog.querySummary(petDbHelper.getReadableDatabase(),
+                        getRangeParameter(uri, PetContract.QUERY_PARAM_FROM),
+                        getRangeParameter(uri, PetContract.QUERY_PARAM_TO),
+                        cancellationSignal);
+                break;
+
+            case MAINTENANCE_LOG:
+                cursor = queryPets(
+                        MaintenanceEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, cancellationSignal);
+                break;
+
+            case PETS_INCLUDE_ARCHIVED:
+                cursor = queryPets(
+                        PetEntry.ALL_PETS_VIEW_NAME, projection, selection,
+                        selectionArgs, sortOrder, cancellationSignal);
+                break;
+
+            case PET_ID_INCLUDE_ARCHIVED:
+                selection = SELECTION_BY_ID;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
                 cursor = queryPets(
-                        projection, selection,
-                        selectionArgs, null);
+                        PetEntry.ALL_PETS_VIEW_NAME, projection, selection,
+                        selectionArgs, null, cancellationSignal);
                 break;
 
             default:
@@ -91,14 +384,126 @@ public class PetProvider extends ContentProvider {
         return cursor;
     }
 
-    private Cursor queryPets(String[] projection, String selection,
-                             String[] selectionArgs, String sortOrder) {
+    /**
+     * Query a list of pets of the catalog, the whole pets URI or the pets of a shelter.
+     * <p>
+     * The catalog asks for the same lists again and again, the same query again returns the
+     * cached result until the next write, see {@link PetQueryCache}. The other URIs are single
+     * rows or seldom repeated, they are not worth the memory.
+     */
+    private Cursor queryPetList(String table, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder,
+                                CancellationSignal cancellationSignal) {
+        String key = PetQueryCache.keyOf(table, projection, selection, selectionArgs, sortOrder);
+        Cursor cached = queryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Taken before the query, a write committed meanwhile makes the result stale.
+        long writeVersion = queryCache.getWriteVersion();
+
+        Cursor cursor = queryPets(
+                table, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        return queryCache.put(key, writeVersion, cursor);
+    }
 
+    /**
+     * Query the given table, either the pets view (the default), the view that includes the
+     * archived pets, the events, records and rollups, or the maintenance log.
+     */
+    private Cursor queryPets(String table, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder,
+                             CancellationSignal cancellationSignal) {
         SQLiteDatabase db = petDbHelper.getReadableDatabase();
 
         return db.query(
-                PetEntry.TABLE_NAME, projection, selection,
-                selectionArgs, null, null, sortOrder);
+                false, table, projection, selection,
+                selectionArgs, null, null, sortOrder, null, cancellationSignal);
+    }
+
+    /**
+     * Returns the given projection of a pets view query with the computed columns, e.g.
+     * {@link PetEntry#COL_LAST_VACCINATION}, replaced by their expressions.
+     */
+    static String[] withComputedColumns(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+
+        String[] expanded = projection;
+        for (int i = 0; i < projection.length; i++) {
+            if (PetEntry.COL_LAST_VACCINATION.equals(projection[i])) {
+                if (expanded == projection) {
+                    expanded = projection.clone();
+                }
+                expanded[i] = LAST_VACCINATION_SQL;
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Query the rows of a rollup table whose buckets are in the given range, both inclusive, in
+     * bucket order.
+     */
+    private Cursor queryRollups(Uri uri, String table, String bucketColumn, long fromBucket,
+                                long toBucket, String[] projection,
+                                CancellationSignal cancellationSignal) {
+        return queryPets(table, projection, rollupsSelection(bucketColumn),
+                new String[]{String.valueOf(fromBucket), String.valueOf(toBucket)},
+                rollupsSortOrder(bucketColumn), cancellationSignal);
+    }
+
+    /**
+     * Returns the selection of a range of buckets of a rollup table, the first and last bucket
+     * are the arguments.
+     */
+    static String rollupsSelection(String bucketColumn) {
+        return bucketColumn + " BETWEEN ? AND ?";
+    }
+
+    /**
+     * Returns the order of the rows of a rollup table, the order of its primary key.
+     */
+    static String rollupsSortOrder(String bucketColumn) {
+        return bucketColumn + ", " + EventEntry.COL_TYPE;
+    }
+
+    /**
+     * Returns the value of a time range query parameter of the given URI.
+     */
+    private static long getRangeParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name + " parameter in " + uri);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter in " + uri);
+        }
+    }
+
+    /**
+     * Query the sections of the pets of the shelter given by the URI: the distinct first
+     * characters of the names in upper case, with the number of pets of each one, in the order
+     * of {@link PetEntry#SORT_BY_NAME}.
+     * <p>
+     * Grouped over the range of the shelter in the (shelter, name) index, without reading the
+     * table. The sections compare like the names of the list, so the offset of a section in the
+     * list sorted by name is the sum of the counts of the previous sections, including for the
+     * names that start with a lower case letter or with a character that isn't a letter.
+     */
+    private Cursor querySections(Uri uri, CancellationSignal cancellationSignal) {
+        // The shelter ID is the second to last segment, before the sections path.
+        List<String> segments = uri.getPathSegments();
+        String shelterId = segments.get(segments.size() - 2);
+
+        SQLiteDatabase db = petDbHelper.getReadableDatabase();
+        return db.query(false, PetEntry.TABLE_NAME, SECTIONS_PROJECTION,
+                shelterSelection(null), new String[]{shelterId},
+                SECTIONS_ORDER, null, SECTIONS_ORDER, null, cancellationSignal);
     }
 
     /**
@@ -112,13 +517,42 @@ public class PetProvider extends ContentProvider {
         int match = uriMatcher.match(uri);
         switch (match) {
             case PETS:
+            case PETS_INCLUDE_ARCHIVED:
+            case SHELTER_PETS:
                 type = PetEntry.CONTENT_LIST_TYPE;
                 break;
 
             case PET_ID:
+            case PET_ID_INCLUDE_ARCHIVED:
                 type = PetEntry.CONTENT_ITEM_TYPE;
                 break;
 
+            case SHELTER_SECTIONS:
+                type = PetEntry.CONTENT_SECTIONS_TYPE;
+                break;
+
+            case PET_EVENTS:
+                type = EventEntry.CONTENT_LIST_TYPE;
+                break;
+
+            case PET_RECORDS:
+                type = RecordEntry.CONTENT_LIST_TYPE;
+                break;
+
+            case PET_RECORD_ID:
+                type = RecordEntry.CONTENT_ITEM_TYPE;
+                break;
+
+            case EVENTS_DAILY:
+            case EVENTS_MONTHLY:
+            case EVENTS_SUMMARY:
+                type = EventEntry.CONTENT_ROLLUP_TYPE;
+                break;
+
+            case MAINTENANCE_LOG:
+                type = MaintenanceEntry.CONTENT_LIST_TYPE;
+                break;
+
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri.toString());
         }
@@ -132,19 +566,44 @@ public class PetProvider extends ContentProvider {
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @NonNull ContentValues values) {
+        DebugInstrumentation.noteDatabaseAccess("insert " + uri);
+
+        dbLock.readLock().lock();
+        try {
+            return insertLocked(uri, values);
+        } finally {
+            dbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insert the values, with the read lock of the database held.
+     */
+    private Uri insertLocked(Uri uri, ContentValues values) {
         Uri newRowUri;
 
         final int match = uriMatcher.match(uri);
         switch (match) {
             case PETS:
-                newRowUri = insertPet(uri, values);
+                newRowUri = insertPet(values);
+                break;
+
+            case SHELTER_PETS:
+                newRowUri = insertPet(withShelter(uri, values));
+                break;
+
+            case PET_RECORDS:
+                newRowUri = insertRecord(uri, values);
                 break;
 
             default:
                 throw new IllegalArgumentException("No match found in this uri " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        /* Always notify the whole pets URI, its observers include the observers of the single
+         * pet, of the per shelter URIs and of the medical records (the catalog shows the last
+         * vaccination). */
+        notifyPetsChanged();
 
         return newRowUri;
     }
@@ -153,151 +612,1313 @@ public class PetProvider extends ContentProvider {
      * Insert a pet into the database with the given content values. Return the new content URI
      * for that specific row in the database.
      */
-    private Uri insertPet(Uri uri, ContentValues values) {
+    private Uri insertPet(ContentValues values) {
         /* Self note: why don't we add these checks in the insert() directly, since it can branch
          * to other branches other than this method. */
 
         String name = values.getAsString(PetEntry.COL_PET_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Pet requires a name!");
-        }
+        PetValidator.checkName(name);
 
-        // No need to check the breed, any value is valid (including null (empty string)).
+        /* No need to check the breed, any value is valid (including null (empty string)), it's
+         * canonicalized by the breed dictionary. */
 
         Integer gender = values.getAsInteger(PetEntry.COL_PET_GENDER);
-        if (gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException(
-                    "Pet gender can be only: 0 for unknown, 1 for male, 2 for female");
-        }
+        PetValidator.checkGender(gender);
 
         /* The weight can be null, if so, the database will default it to 0. */
         Integer weight = values.getAsInteger(PetEntry.COL_PET_WEIGHT);
-        // Negative weights are not accepted.
-        if (weight != null && weight < 0) {
-            throw new IllegalArgumentException("Weight must be > 0");
+        if (weight != null) {
+            PetValidator.checkWeight(weight);
         }
 
-        SQLiteDatabase db = petDbHelper.getWritableDatabase();
-        long newRowId = db.insert(PetEntry.TABLE_NAME, null, values);
+        /* The shelter can be null, if so, the database will default it to the default shelter. */
+        Long shelterId = values.getAsLong(PetEntry.COL_SHELTER_ID);
+        if (shelterId != null) {
+            PetValidator.checkShelter(shelterId);
+        }
+
+        /* The status can be null, if so, the database will default it to available. */
+        Integer status = values.getAsInteger(PetEntry.COL_PET_STATUS);
+        if (status != null) {
+            PetValidator.checkStatus(status);
+        }
+
+        for (String column : values.keySet()) {
+            if (!INSERT_COLUMNS.contains(column)) {
+                // Columns the compiled statement doesn't know are left to SQLite to reject.
+                return insertPetValues(values, gender, weight, status);
+            }
+        }
+
+        long newRowId = insertPetRow(petDbHelper.getWritableDatabase(), name,
+                values.getAsString(PetEntry.COL_PET_BREED), gender,
+                weight == null ? 0 : weight,
+                status == null ? PetEntry.STATUS_AVAILABLE : status,
+                shelterId == null ? PetEntry.DEFAULT_SHELTER_ID : shelterId);
         if (newRowId == -1) {
-            Log.e(LOG_TAG, "insertPet: Failed to insert row for " + uri);
+            Log.e(LOG_TAG, "insertPet: Failed to insert row for " + values);
             return null;
         }
 
-        return ContentUris.withAppendedId(uri, newRowId);
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, newRowId);
     }
 
     /**
-     * Delete row/s at the given selection and selection arguments.
+     * Insert a pet with arbitrary (already validated) content values.
      */
-    @Override
-    public int delete(@NonNull Uri uri, @Nullable String selection,
-                      @Nullable String[] selectionArgs) {
-        int rowsDeleted;
-
-        int match = uriMatcher.match(uri);
-        switch (match) {
-            // Delete all rows that match the selection and selection args.
-            case PETS:
-                rowsDeleted = deleteFromPets(selection, selectionArgs);
-                break;
-
-            case PET_ID:
-                // Delete a single row given by the ID.
-                selection = PetEntry.COL_ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-
-                rowsDeleted = deleteFromPets(selection, selectionArgs);
-                break;
+    private Uri insertPetValues(ContentValues values, int gender, Integer weight,
+                                Integer status) {
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+        ContentValues tableValues = new ContentValues(encodeBreed(db, values));
+        tableValues.put(PetEntry.COL_FINGERPRINT, PetFingerprint.of(
+                values.getAsString(PetEntry.COL_PET_NAME),
+                values.getAsString(PetEntry.COL_PET_BREED),
+                gender, weight == null ? 0 : weight));
 
-            default:
-                throw new IllegalArgumentException("Unsupported URI " + uri);
+        long newRowId;
+        columnarSnapshot.beginTransaction(db);
+        try {
+            newRowId = db.insert(PetEntry.TABLE_NAME, null, tableValues);
+            if (newRowId != -1) {
+                eventLog.append(db, newRowId, EventEntry.TYPE_INTAKE,
+                        (long) (weight == null ? 0 : weight), System.currentTimeMillis());
+            }
+            // A failed insert wrote nothing, it must not roll back the caller's transaction.
+            db.setTransactionSuccessful();
+        } finally {
+            columnarSnapshot.endTransaction(db);
         }
 
-        if (rowsDeleted > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (newRowId == -1) {
+            Log.e(LOG_TAG, "insertPet: Failed to insert row for " + values);
+            return null;
         }
 
-        return rowsDeleted;
-    }
+        Long breedId = tableValues.getAsLong(PetEntry.COL_BREED_ID);
+        columnarSnapshot.put(newRowId,
+                breedId == null ? null : breedDictionary.getName(breedId),
+                gender, weight == null ? 0 : weight);
 
-    private int deleteFromPets(String selection, String[] selectionArgs) {
-        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+        if (status != null && status == PetEntry.STATUS_ADOPTED) {
+            scheduleArchive();
+        }
 
-        return db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, newRowId);
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Insert a validated pet through the compiled insert statement, and keep the columnar
+     * snapshot in sync. The caller notifies the change.
+     *
+     * @return the ID of the new pet, or -1 if it couldn't be inserted.
      */
-    @Override
-    public int update(@NonNull Uri uri, @Nullable ContentValues values,
-                      @Nullable String selection, @Nullable String[] selectionArgs) {
-        int rowsUpdated;
+    long insertPetRow(SQLiteDatabase db, String name, String breed, int gender, int weight,
+                      int status, long shelterId) {
+        Long breedId = breedDictionary.resolve(db, breed);
 
-        final int match = uriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                rowsUpdated = updatePets(values, selection, selectionArgs);
-                break;
-
-            case PET_ID:
-                selection = PetEntry.COL_ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+        long newRowId;
+        columnarSnapshot.beginTransaction(db);
+        try {
+            try {
+                newRowId = petStatements.insert(db, name, breedId, gender, weight, status,
+                        shelterId, PetFingerprint.of(name, breed, gender, weight));
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "insertPetRow: Failed to insert " + name, e);
+                newRowId = -1;
+            }
 
-                rowsUpdated = updatePets(values, selection, selectionArgs);
-                break;
+            if (newRowId != -1) {
+                eventLog.append(db, newRowId, EventEntry.TYPE_INTAKE, (long) weight,
+                        System.currentTimeMillis());
+            }
+            // A failed insert wrote nothing, it must not roll back the caller's transaction.
+            db.setTransactionSuccessful();
+        } finally {
+            columnarSnapshot.endTransaction(db);
+        }
 
-            default:
-                throw new IllegalArgumentException("Unknown URI " + uri);
+        if (newRowId == -1) {
+            return -1;
         }
 
-        if (rowsUpdated > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        columnarSnapshot.put(newRowId,
+                breedId == null ? null : breedDictionary.getName(breedId), gender, weight);
+
+        if (status == PetEntry.STATUS_ADOPTED) {
+            scheduleArchive();
         }
 
-        return rowsUpdated;
+        return newRowId;
     }
 
     /**
-     * Update petsshelter in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0, 1 or more pets).
+     * Update the name, breed, gender and weight of a validated pet through the compiled update
+     * statement, and keep the columnar snapshot in sync. The caller notifies the change.
      *
-     * @return the number of rows that were successfully updated.
+     * @return the number of updated rows, 0 or 1.
      */
-    private int updatePets(ContentValues values, String selection, String[] selectionArgs) {
-        if (values == null || values.size() == 0) {
-            return 0;
-        }
+    int updatePetRow(long id, String name, String breed, int gender, int weight) {
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
 
-        /* Since the update() doesn't require all the attributes/columns to be present, make sure
-         * that each attribute exists in the ContentValues object before checking its value. */
+        columnarSnapshot.beginTransaction(db);
+        try {
+            Long breedId = breedDictionary.resolve(db, breed);
 
-        if (values.containsKey(PetEntry.COL_PET_NAME)) {
-            String name = values.getAsString(PetEntry.COL_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Name cannot be null");
+            logChanges(db, PetEntry.COL_PET_WEIGHT, weight, EventEntry.TYPE_WEIGHT_CHECK,
+                    (long) weight, SELECTION_BY_ID, new String[]{String.valueOf(id)});
+            int rowsUpdated = petStatements.updateDetails(db, id, name, breedId, gender,
+                    weight, PetFingerprint.of(name, breed, gender, weight));
+            if (rowsUpdated > 0) {
+                columnarSnapshot.put(id,
+                        breedId == null ? null : breedDictionary.getName(breedId),
+                        gender, weight);
             }
+
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } catch (RuntimeException e) {
+            onTransactionFailed();
+            throw e;
+        } finally {
+            columnarSnapshot.endTransaction(db);
         }
+    }
 
-        // No need to check the breed, any value is valid (including null).
+    /**
+     * Update the status of a validated pet through the compiled update statement. The caller
+     * notifies the change.
+     *
+     * @return the number of updated rows, 0 or 1.
+     */
+    int updatePetStatus(long id, int status) {
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
 
-        if (values.containsKey(PetEntry.COL_PET_GENDER)) {
-            Integer gender = values.getAsInteger(PetEntry.COL_PET_GENDER);
-            if (gender == null || !PetEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Invalid gender " + gender);
+        int rowsUpdated;
+        columnarSnapshot.beginTransaction(db);
+        try {
+            if (status == PetEntry.STATUS_ADOPTED) {
+                logChanges(db, PetEntry.COL_PET_STATUS, status, EventEntry.TYPE_ADOPTION, null,
+                        SELECTION_BY_ID, new String[]{String.valueOf(id)});
             }
+            rowsUpdated = petStatements.updateStatus(db, id, status);
+
+            db.setTransactionSuccessful();
+        } finally {
+            columnarSnapshot.endTransaction(db);
         }
 
-        if (values.containsKey(PetEntry.COL_PET_WEIGHT)) {
-            Integer weight = values.getAsInteger(PetEntry.COL_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Invalid weight " + weight);
-            }
+        // Adopted pets are moved to the archive in the background.
+        if (rowsUpdated > 0 && status == PetEntry.STATUS_ADOPTED) {
+            scheduleArchive();
         }
+        return rowsUpdated;
+    }
 
-        SQLiteDatabase db = petDbHelper.getWritableDatabase();
-        return db.update(PetEntry.TABLE_NAME, values,
-                selection, selectionArgs);
+    SQLiteDatabase getWritableDatabase() {
+        return petDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Returns the lock to hold while using the database outside of the provider methods, so
+     * that a restore doesn't close it meanwhile.
+     */
+    Lock getDatabaseLock() {
+        return dbLock.readLock();
+    }
+
+    /**
+     * Notify the observers of the pets, and of the events the change may have logged.
+     */
+    void notifyPetsChanged() {
+        notifyChange(PetEntry.CONTENT_URI);
+        notifyChange(EventEntry.CONTENT_URI);
+    }
+
+    /**
+     * Report a committed write: bump the write version of the query cache, which drops the
+     * results read before, then notify the observers of the given URI. Every insert, update
+     * and delete path ends here, after its transaction.
+     */
+    private void notifyChange(Uri uri) {
+        queryCache.invalidate();
+        changeNotifier.notifyChange(uri);
+    }
+
+    /**
+     * Forget the breeds resolved in a transaction that was rolled back. The columnar snapshot
+     * drops the changes of the transaction by itself, see
+     * {@link PetColumnarSnapshot#beginTransaction(SQLiteDatabase)}.
+     */
+    void onTransactionFailed() {
+        breedDictionary.clear();
+    }
+
+    /**
+     * Returns the typed writer of this provider.
+     */
+    PetWriter getPetWriter() {
+        return petWriter;
+    }
+
+    /**
+     * Insert all the given rows in a single transaction, and notify the observers once.
+     * <p>
+     * Every row is validated like in {@link #insert(Uri, ContentValues)}, an invalid row rolls
+     * back the whole batch.
+     *
+     * @return the number of rows that were inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        DebugInstrumentation.noteDatabaseAccess("bulkInsert " + uri);
+
+        dbLock.readLock().lock();
+        try {
+            return bulkInsertLocked(uri, values);
+        } finally {
+            dbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insert the batch, with the read lock of the database held.
+     */
+    private int bulkInsertLocked(Uri uri, ContentValues[] values) {
+        final int match = uriMatcher.match(uri);
+        if (match != PETS && match != SHELTER_PETS) {
+            throw new IllegalArgumentException("No match found in this uri " + uri);
+        }
+
+        int rowsInserted = 0;
+
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+        columnarSnapshot.beginTransaction(db);
+        try {
+            for (ContentValues petValues : values) {
+                if (match == SHELTER_PETS) {
+                    petValues = withShelter(uri, petValues);
+                }
+                if (insertPet(petValues) != null) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            // The breeds added by the batch are rolled back with it.
+            onTransactionFailed();
+            throw e;
+        } finally {
+            columnarSnapshot.endTransaction(db);
+        }
+
+        if (rowsInserted > 0) {
+            notifyPetsChanged();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Delete row/s at the given selection and selection arguments.
+     */
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        DebugInstrumentation.noteDatabaseAccess("delete " + uri);
+
+        dbLock.readLock().lock();
+        try {
+            return deleteLocked(uri, selection, selectionArgs);
+        } finally {
+            dbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete the rows, with the read lock of the database held.
+     */
+    private int deleteLocked(Uri uri, String selection, String[] selectionArgs) {
+        int rowsDeleted;
+
+        int match = uriMatcher.match(uri);
+        switch (match) {
+            // Delete all rows that match the selection and selection args.
+            case PETS:
+                rowsDeleted = deleteFromPets(viewSelection(selection), selectionArgs);
+                break;
+
+            case PET_ID:
+                // Delete a single row given by the ID.
+                selection = SELECTION_BY_ID;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                rowsDeleted = deleteFromPets(selection, selectionArgs);
+                break;
+
+            case SHELTER_PETS:
+                // Delete the rows of a single shelter that match the selection.
+                rowsDeleted = deleteFromPets(shelterSelection(viewSelection(selection)),
+                        shelterSelectionArgs(uri, selectionArgs));
+                break;
+
+            case PET_RECORDS:
+            case PET_RECORD_ID:
+                rowsDeleted = petDbHelper.getWritableDatabase().delete(RecordEntry.TABLE_NAME,
+                        recordsSelection(uri, selection),
+                        recordsSelectionArgs(uri, selectionArgs));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported URI " + uri);
+        }
+
+        if (rowsDeleted > 0) {
+            notifyChange(PetEntry.CONTENT_URI);
+        }
+
+        return rowsDeleted;
+    }
+
+    private int deleteFromPets(String selection, String[] selectionArgs) {
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+
+        if (!columnarSnapshot.isEnabled()) {
+            return db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+        }
+
+        /* Keep the columnar snapshot in sync, the rows to delete are looked up in the same
+         * transaction as the delete itself. */
+        columnarSnapshot.beginTransaction(db);
+        try {
+            int rowsDeleted;
+            if (TextUtils.isEmpty(selection)) {
+                rowsDeleted = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                columnarSnapshot.removeAll();
+            } else {
+                long[] ids = queryPetIds(db, selection, selectionArgs);
+                rowsDeleted = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                columnarSnapshot.remove(ids);
+            }
+
+            db.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            columnarSnapshot.endTransaction(db);
+        }
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values,
+                      @Nullable String selection, @Nullable String[] selectionArgs) {
+        DebugInstrumentation.noteDatabaseAccess("update " + uri);
+
+        dbLock.readLock().lock();
+        try {
+            return updateLocked(uri, values, selection, selectionArgs);
+        } finally {
+            dbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Update the rows, with the read lock of the database held.
+     */
+    private int updateLocked(Uri uri, ContentValues values, String selection,
+                             String[] selectionArgs) {
+        int rowsUpdated;
+
+        final int match = uriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                rowsUpdated = updatePets(values, viewSelection(selection), selectionArgs);
+                break;
+
+            case PET_ID:
+                selection = SELECTION_BY_ID;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                rowsUpdated = updatePets(values, selection, selectionArgs);
+                break;
+
+            case SHELTER_PETS:
+                rowsUpdated = updatePets(values, shelterSelection(viewSelection(selection)),
+                        shelterSelectionArgs(uri, selectionArgs));
+                break;
+
+            case PET_RECORDS:
+            case PET_RECORD_ID:
+                rowsUpdated = updateRecords(values,
+                        recordsSelection(uri, selection), recordsSelectionArgs(uri, selectionArgs));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        if (rowsUpdated > 0) {
+            notifyPetsChanged();
+        }
+
+        return rowsUpdated;
+    }
+
+    /**
+     * Update petsshelter in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0, 1 or more pets).
+     *
+     * @return the number of rows that were successfully updated.
+     */
+    private int updatePets(ContentValues values, String selection, String[] selectionArgs) {
+        if (values == null || values.size() == 0) {
+            return 0;
+        }
+
+        /* Since the update() doesn't require all the attributes/columns to be present, make sure
+         * that each attribute exists in the ContentValues object before checking its value. */
+
+        if (values.containsKey(PetEntry.COL_PET_NAME)) {
+            PetValidator.checkName(values.getAsString(PetEntry.COL_PET_NAME));
+        }
+
+        // No need to check the breed, any value is valid (including null).
+
+        if (values.containsKey(PetEntry.COL_PET_GENDER)) {
+            PetValidator.checkGender(values.getAsInteger(PetEntry.COL_PET_GENDER));
+        }
+
+        if (values.containsKey(PetEntry.COL_PET_WEIGHT)) {
+            Integer weight = values.getAsInteger(PetEntry.COL_PET_WEIGHT);
+            if (weight != null) {
+                PetValidator.checkWeight(weight);
+            }
+        }
+
+        if (values.containsKey(PetEntry.COL_SHELTER_ID)) {
+            PetValidator.checkShelter(values.getAsLong(PetEntry.COL_SHELTER_ID));
+        }
+
+        boolean adopting = false;
+        if (values.containsKey(PetEntry.COL_PET_STATUS)) {
+            Integer status = values.getAsInteger(PetEntry.COL_PET_STATUS);
+            PetValidator.checkStatus(status);
+            adopting = status == PetEntry.STATUS_ADOPTED;
+        }
+
+        int rowsUpdated = updatePetsTable(values, selection, selectionArgs);
+
+        // Adopted pets are moved to the archive in the background.
+        if (adopting && rowsUpdated > 0) {
+            scheduleArchive();
+        }
+
+        return rowsUpdated;
+    }
+
+    private int updatePetsTable(ContentValues values, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+
+        boolean fingerprintChanges = values.containsKey(PetEntry.COL_PET_NAME)
+                || values.containsKey(PetEntry.COL_PET_BREED)
+                || values.containsKey(PetEntry.COL_PET_GENDER)
+                || values.containsKey(PetEntry.COL_PET_WEIGHT);
+
+        /* The events of the changes are logged in the same transaction. The columnar snapshot
+         * and the fingerprints are kept in sync like in deleteFromPets(), but the updated rows
+         * are read back after the update. */
+        columnarSnapshot.beginTransaction(db);
+        try {
+            long[] ids = columnarSnapshot.isEnabled() || fingerprintChanges
+                    ? queryPetIds(db, selection, selectionArgs) : null;
+            logUpdateEvents(db, values, selection, selectionArgs);
+            int rowsUpdated = db.update(PetEntry.TABLE_NAME, encodeBreed(db, values),
+                    selection, selectionArgs);
+            if (ids != null) {
+                refreshUpdatedRows(db, ids, fingerprintChanges);
+            }
+
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } catch (RuntimeException e) {
+            onTransactionFailed();
+            throw e;
+        } finally {
+            columnarSnapshot.endTransaction(db);
+        }
+    }
+
+    /**
+     * Log the events of an update of the pets table, before the update: a weight check for
+     * each pet whose weight changes, a transfer for each one whose shelter changes and an
+     * adoption for each one that gets adopted.
+     */
+    private void logUpdateEvents(SQLiteDatabase db, ContentValues values, String selection,
+                                 String[] selectionArgs) {
+        Integer weight = values.getAsInteger(PetEntry.COL_PET_WEIGHT);
+        if (weight != null) {
+            logChanges(db, PetEntry.COL_PET_WEIGHT, weight, EventEntry.TYPE_WEIGHT_CHECK,
+                    (long) weight, selection, selectionArgs);
+        }
+
+        Long shelterId = values.getAsLong(PetEntry.COL_SHELTER_ID);
+        if (shelterId != null) {
+            logChanges(db, PetEntry.COL_SHELTER_ID, shelterId, EventEntry.TYPE_TRANSFER,
+                    shelterId, selection, selectionArgs);
+        }
+
+        Integer status = values.getAsInteger(PetEntry.COL_PET_STATUS);
+        if (status != null && status == PetEntry.STATUS_ADOPTED) {
+            logChanges(db, PetEntry.COL_PET_STATUS, status, EventEntry.TYPE_ADOPTION, null,
+                    selection, selectionArgs);
+        }
+    }
+
+    /**
+     * Log an event of the given type for each pet matching the selection whose value of the
+     * given column differs from the new value.
+     */
+    private void logChanges(SQLiteDatabase db, String column, long newValue, int eventType,
+                            Long eventValue, String selection, String[] selectionArgs) {
+        String changed = column + "<>?";
+        String changedSelection = TextUtils.isEmpty(selection)
+                ? changed : "(" + selection + ") AND " + changed;
+
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] changedArgs = new String[argCount + 1];
+        if (argCount > 0) {
+            System.arraycopy(selectionArgs, 0, changedArgs, 0, argCount);
+        }
+        changedArgs[argCount] = String.valueOf(newValue);
+
+        long now = System.currentTimeMillis();
+        for (long id : queryPetIds(db, changedSelection, changedArgs)) {
+            eventLog.append(db, id, eventType, eventValue, now);
+        }
+    }
+
+    /**
+     * Returns the values to write to the pets table: the breed name, if any, is replaced by the
+     * ID of the breed, see {@link BreedDictionary}.
+     */
+    private ContentValues encodeBreed(SQLiteDatabase db, ContentValues values) {
+        if (!values.containsKey(PetEntry.COL_PET_BREED)) {
+            return values;
+        }
+
+        ContentValues tableValues = new ContentValues(values);
+        tableValues.remove(PetEntry.COL_PET_BREED);
+        tableValues.put(PetEntry.COL_BREED_ID,
+                breedDictionary.resolve(db, values.getAsString(PetEntry.COL_PET_BREED)));
+        return tableValues;
+    }
+
+    /**
+     * Run the archiver in the background, unless a run is already pending.
+     */
+    private void scheduleArchive() {
+        if (!archivePending.compareAndSet(false, true)) {
+            return;
+        }
+
+        archiveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                archivePending.set(false);
+                dbLock.readLock().lock();
+                try {
+                    archiveAdoptedPets();
+                } finally {
+                    dbLock.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Move all the adopted pets to the archive table.
+     *
+     * @return the number of archived pets.
+     */
+    private int archiveAdoptedPets() {
+        int archived = petArchiver.archiveAll(petDbHelper.getWritableDatabase());
+        if (archived > 0) {
+            // The pets left the main table but are still in the include_archived view.
+            notifyChange(PetEntry.CONTENT_URI);
+        }
+        return archived;
+    }
+
+    /**
+     * Returns the given selection of the caller, on the columns of the pets view, as a selection
+     * of the pets table. The caller sees the breed name where the table has the breed ID, the
+     * rows are matched through the view.
+     */
+    static String viewSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return selection;
+        }
+        return PetEntry.COL_ID + " IN (SELECT " + PetEntry.COL_ID + " FROM "
+                + PetEntry.PETS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Returns the given selection restricted to a single shelter, the shelter ID is the first
+     * argument, see {@link #shelterSelectionArgs(Uri, String[])}.
+     */
+    static String shelterSelection(String selection) {
+        String shelterSelection = PetEntry.COL_SHELTER_ID + "=?";
+        if (TextUtils.isEmpty(selection)) {
+            return shelterSelection;
+        }
+        return shelterSelection + " AND (" + selection + ")";
+    }
+
+    /**
+     * Returns a copy of the given values with the shelter ID of the given shelter URI, the
+     * values of the caller are left untouched.
+     */
+    private static ContentValues withShelter(Uri uri, ContentValues values) {
+        ContentValues shelterValues = new ContentValues(values);
+        shelterValues.put(PetEntry.COL_SHELTER_ID, ContentUris.parseId(uri));
+        return shelterValues;
+    }
+
+    /**
+     * Returns the given selection arguments, preceded by the shelter ID of the given shelter URI.
+     */
+    private static String[] shelterSelectionArgs(Uri uri, String[] selectionArgs) {
+        String shelterId = String.valueOf(ContentUris.parseId(uri));
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return new String[]{shelterId};
+        }
+
+        String[] args = new String[selectionArgs.length + 1];
+        args[0] = shelterId;
+        System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        return args;
+    }
+
+    /**
+     * Returns the selection of the records of the pet given by a records URI, or of the single
+     * record given by a record URI, further restricted by the given selection.
+     */
+    static String recordsSelection(Uri uri, String selection) {
+        String recordsSelection = RecordEntry.COL_PET_ID + "=?";
+        if (uriMatcher.match(uri) == PET_RECORD_ID) {
+            recordsSelection += " AND " + RecordEntry.COL_ID + "=?";
+        }
+        if (TextUtils.isEmpty(selection)) {
+            return recordsSelection;
+        }
+        return recordsSelection + " AND (" + selection + ")";
+    }
+
+    /**
+     * Returns the given selection arguments, preceded by the IDs of the given records URI.
+     */
+    private static String[] recordsSelectionArgs(Uri uri, String[] selectionArgs) {
+        // petsshelter/<pet ID>/records[/<record ID>]
+        List<String> segments = uri.getPathSegments();
+        List<String> args = new ArrayList<>();
+        args.add(segments.get(1));
+        if (uriMatcher.match(uri) == PET_RECORD_ID) {
+            args.add(segments.get(3));
+        }
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the selection of the events of the pet given by an events URI, further restricted
+     * by the given selection.
+     */
+    static String eventsSelection(String selection) {
+        String eventsSelection = EventEntry.COL_PET_ID + "=?";
+        if (TextUtils.isEmpty(selection)) {
+            return eventsSelection;
+        }
+        return eventsSelection + " AND (" + selection + ")";
+    }
+
+    /**
+     * Returns the given selection arguments, preceded by the pet ID of the given events URI.
+     */
+    private static String[] eventsSelectionArgs(Uri uri, String[] selectionArgs) {
+        // The pet ID is the second to last segment, before the events path.
+        List<String> segments = uri.getPathSegments();
+        List<String> args = new ArrayList<>();
+        args.add(segments.get(segments.size() - 2));
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Insert a medical record for the pet given by the records URI.
+     *
+     * @return the URI of the new record, or null if there's no such pet.
+     */
+    private Uri insertRecord(Uri uri, ContentValues values) {
+        PetValidator.checkRecordDate(values.getAsLong(RecordEntry.COL_DATE));
+        PetValidator.checkRecordType(values.getAsInteger(RecordEntry.COL_TYPE));
+
+        long petId = Long.parseLong(uri.getPathSegments().get(1));
+        ContentValues recordValues = new ContentValues(values);
+        recordValues.put(RecordEntry.COL_PET_ID, petId);
+
+        // Refused by the foreign key if there's no such pet.
+        long newRowId = petDbHelper.getWritableDatabase().insert(
+                RecordEntry.TABLE_NAME, null, recordValues);
+        if (newRowId == -1) {
+            Log.e(LOG_TAG, "insertRecord: Failed to insert row for " + values);
+            return null;
+        }
+
+        return RecordEntry.buildRecordUri(petId, newRowId);
+    }
+
+    /**
+     * Update the medical records that match the selection with the given values, which don't
+     * need to have all the columns.
+     *
+     * @return the number of updated records.
+     */
+    private int updateRecords(ContentValues values, String selection, String[] selectionArgs) {
+        if (values == null || values.size() == 0) {
+            return 0;
+        }
+
+        if (values.containsKey(RecordEntry.COL_PET_ID)) {
+            throw new IllegalArgumentException("A medical record cannot move to another pet");
+        }
+        if (values.containsKey(RecordEntry.COL_DATE)) {
+            PetValidator.checkRecordDate(values.getAsLong(RecordEntry.COL_DATE));
+        }
+        if (values.containsKey(RecordEntry.COL_TYPE)) {
+            PetValidator.checkRecordType(values.getAsInteger(RecordEntry.COL_TYPE));
+        }
+
+        return petDbHelper.getWritableDatabase().update(
+                RecordEntry.TABLE_NAME, values, selection, selectionArgs);
+    }
+
+    /**
+     * Returns the IDs of the pets that match the given selection and selection arguments.
+     */
+    private long[] queryPetIds(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[]{PetEntry.COL_ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the updated rows with the given IDs back from the database into the columnar
+     * snapshot, and compute their fingerprints again if asked to.
+     */
+    private void refreshUpdatedRows(SQLiteDatabase db, long[] ids, boolean fingerprints) {
+        String[] projection = {
+                PetEntry.COL_ID,
+                PetEntry.COL_PET_BREED,
+                PetEntry.COL_PET_GENDER,
+                PetEntry.COL_PET_WEIGHT,
+                PetEntry.COL_PET_NAME
+        };
+
+        for (int start = 0; start < ids.length; start += MAX_SQL_VARIABLES) {
+            int end = Math.min(ids.length, start + MAX_SQL_VARIABLES);
+
+            String[] args = toSelectionArgs(ids, start, end);
+
+            Cursor cursor = db.query(PetEntry.PETS_VIEW_NAME, projection,
+                    idsSelection(args.length), args,
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    String breed = cursor.isNull(1) ? null : cursor.getString(1);
+                    if (columnarSnapshot.isEnabled()) {
+                        columnarSnapshot.put(id, breed, cursor.getInt(2), cursor.getInt(3));
+                    }
+                    if (fingerprints) {
+                        petStatements.updateFingerprint(db, id, PetFingerprint.of(
+                                cursor.getString(4), breed, cursor.getInt(2),
+                                cursor.getInt(3)));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs from start (inclusive) to end (exclusive) as selection arguments.
+     */
+    private static String[] toSelectionArgs(long[] ids, int start, int end) {
+        String[] args = new String[end - start];
+        for (int i = start; i < end; i++) {
+            args[i - start] = String.valueOf(ids[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Returns the selection of the pets with the given number of IDs, one argument per ID.
+     */
+    static String idsSelection(int count) {
+        return PetEntry.COL_ID + " IN (" + makePlaceholders(count) + ")";
+    }
+
+    /**
+     * Returns the selection of the pets with the given number of fingerprints, one argument per
+     * fingerprint.
+     */
+    static String fingerprintsSelection(int count) {
+        return PetEntry.COL_FINGERPRINT + " IN (" + makePlaceholders(count) + ")";
+    }
+
+    /**
+     * Returns a comma separated list of the given number of "?" placeholders.
+     */
+    static String makePlaceholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Invoke one of the provider specific methods declared in {@link PetContract}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        DebugInstrumentation.noteDatabaseAccess("call " + method);
+
+        // These take the write lock, which can't be taken while holding the read lock.
+        if (PetContract.METHOD_RESTORE.equals(method)) {
+            return restore(arg, extras);
+        }
+        if (PetContract.METHOD_SET_DB_PROFILE.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("Missing database profile");
+            }
+            return setDbProfile(PetDbProfile.forName(arg));
+        }
+        // Doesn't use the database, it must not wait for a restore.
+        if (PetContract.METHOD_CANCEL_MAINTENANCE.equals(method)) {
+            dbMaintenance.cancel();
+            return null;
+        }
+
+        dbLock.readLock().lock();
+        try {
+            return callLocked(method, arg, extras);
+        } finally {
+            dbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Invoke the method, with the read lock of the database held.
+     */
+    private Bundle callLocked(String method, String arg, Bundle extras) {
+        switch (method) {
+            case PetContract.METHOD_ENABLE_COLUMNAR_SNAPSHOT:
+                columnarSnapshot.load(petDbHelper.getReadableDatabase());
+                return null;
+
+            case PetContract.METHOD_DISABLE_COLUMNAR_SNAPSHOT:
+                columnarSnapshot.disable();
+                return null;
+
+            case PetContract.METHOD_ENABLE_QUERY_CACHE:
+                queryCache.enable();
+                return null;
+
+            case PetContract.METHOD_DISABLE_QUERY_CACHE:
+                Bundle disableResult = new Bundle();
+                disableResult.putBoolean(PetContract.KEY_CACHE_WAS_ENABLED, queryCache.disable());
+                return disableResult;
+
+            case PetContract.METHOD_QUERY_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(PetContract.KEY_CACHE_HITS, queryCache.getHitCount());
+                stats.putLong(PetContract.KEY_CACHE_MISSES, queryCache.getMissCount());
+                stats.putLong(PetContract.KEY_CACHE_EVICTIONS, queryCache.getEvictionCount());
+                stats.putInt(PetContract.KEY_CACHE_SIZE_BYTES, queryCache.getSizeBytes());
+                stats.putInt(PetContract.KEY_CACHE_MAX_BYTES, queryCache.getMaxSizeBytes());
+                return stats;
+
+            case PetContract.METHOD_ARCHIVE_ADOPTED:
+                Bundle archiveResult = new Bundle();
+                archiveResult.putInt(PetContract.KEY_ARCHIVED_COUNT, archiveAdoptedPets());
+                return archiveResult;
+
+            case PetContract.METHOD_SET_NOTIFICATION_WINDOW:
+                long windowMillis = parseNotificationWindow(arg);
+                // Send what's pending with the old window before switching to the new one.
+                changeNotifier.flush();
+                changeNotifier.setWindowMillis(windowMillis);
+                return null;
+
+            case PetContract.METHOD_RUN_MAINTENANCE:
+                Bundle maintenanceResult = new Bundle();
+                maintenanceResult.putBoolean(PetContract.KEY_MAINTENANCE_RAN,
+                        runMaintenance(extras));
+                return maintenanceResult;
+
+            case PetContract.METHOD_BULK_UPDATE:
+                ContentValues values = extras == null ? null
+                        : (ContentValues) extras.getParcelable(PetContract.EXTRA_VALUES);
+                if (values == null) {
+                    throw new IllegalArgumentException("Bulk update requires values");
+                }
+                Bundle updateResult = new Bundle();
+                updateResult.putInt(PetContract.KEY_ROW_COUNT,
+                        writePetsById(getIds(extras), values));
+                return updateResult;
+
+            case PetContract.METHOD_BULK_DELETE:
+                Bundle deleteResult = new Bundle();
+                deleteResult.putInt(PetContract.KEY_ROW_COUNT,
+                        writePetsById(getIds(extras), null));
+                return deleteResult;
+
+            case PetContract.METHOD_FIND_DUPLICATES:
+                ContentValues pet = extras == null ? null
+                        : (ContentValues) extras.getParcelable(PetContract.EXTRA_VALUES);
+                if (pet == null) {
+                    throw new IllegalArgumentException("Finding duplicates requires a pet");
+                }
+                Bundle duplicates = new Bundle();
+                duplicates.putLongArray(PetContract.KEY_DUPLICATE_IDS, findDuplicates(pet));
+                return duplicates;
+
+            case PetContract.METHOD_DEDUP_REPORT:
+                return buildDedupReport();
+
+            case PetContract.METHOD_BACKUP:
+                return backup(arg, extras);
+
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * The notification window, in milliseconds, given as the call argument.
+     *
+     * @throws IllegalArgumentException If the window is missing, not a number or negative.
+     */
+    private static long parseNotificationWindow(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Missing notification window");
+        }
+        long windowMillis;
+        try {
+            windowMillis = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid notification window " + arg, e);
+        }
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Invalid notification window " + arg);
+        }
+        return windowMillis;
+    }
+
+    /**
+     * Returns the IDs of the pets likely to be the given pet, see
+     * {@link PetContract#METHOD_FIND_DUPLICATES}. A few lookups in the fingerprint index,
+     * whatever the number of pets.
+     */
+    private long[] findDuplicates(ContentValues values) {
+        String name = values.getAsString(PetEntry.COL_PET_NAME);
+        PetValidator.checkName(name);
+
+        Integer gender = values.getAsInteger(PetEntry.COL_PET_GENDER);
+        PetValidator.checkGender(gender);
+
+        Integer weight = values.getAsInteger(PetEntry.COL_PET_WEIGHT);
+        if (weight != null) {
+            PetValidator.checkWeight(weight);
+        }
+
+        long[] fingerprints = PetFingerprint.candidatesOf(name,
+                values.getAsString(PetEntry.COL_PET_BREED), gender,
+                weight == null ? 0 : weight);
+        String[] args = toSelectionArgs(fingerprints, 0, fingerprints.length);
+
+        SQLiteDatabase db = petDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[]{PetEntry.COL_ID},
+                fingerprintsSelection(args.length),
+                args, null, null, PetEntry.COL_ID,
+                String.valueOf(PetContract.MAX_DUPLICATES));
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Group all the pets that share their fingerprint, see
+     * {@link PetContract#METHOD_DEDUP_REPORT}.
+     * <p>
+     * The groups are found in a single pass over the fingerprint index, the pets are read in
+     * fingerprint order so the IDs of a group are consecutive.
+     */
+    private Bundle buildDedupReport() {
+        long start = SystemClock.elapsedRealtime();
+
+        List<Long> ids = new ArrayList<>();
+        List<Integer> groupSizes = new ArrayList<>();
+
+        SQLiteDatabase db = petDbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery(DEDUP_REPORT_SQL, null);
+        try {
+            long groupFingerprint = 0;
+            while (cursor.moveToNext()) {
+                long fingerprint = cursor.getLong(0);
+                if (groupSizes.isEmpty() || fingerprint != groupFingerprint) {
+                    groupFingerprint = fingerprint;
+                    groupSizes.add(0);
+                }
+                int last = groupSizes.size() - 1;
+                groupSizes.set(last, groupSizes.get(last) + 1);
+                ids.add(cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.i(LOG_TAG, "buildDedupReport: " + groupSizes.size() + " groups of duplicates in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        long[] idArray = new long[ids.size()];
+        for (int i = 0; i < idArray.length; i++) {
+            idArray[i] = ids.get(i);
+        }
+        int[] sizeArray = new int[groupSizes.size()];
+        for (int i = 0; i < sizeArray.length; i++) {
+            sizeArray[i] = groupSizes.get(i);
+        }
+
+        Bundle report = new Bundle();
+        report.putLongArray(PetContract.KEY_DUPLICATE_IDS, idArray);
+        report.putIntArray(PetContract.KEY_GROUP_SIZES, sizeArray);
+        return report;
+    }
+
+    private static long[] getIds(Bundle extras) {
+        long[] ids = extras == null ? null : extras.getLongArray(PetContract.EXTRA_IDS);
+        if (ids == null) {
+            throw new IllegalArgumentException("Bulk operation requires pet IDs");
+        }
+        return ids;
+    }
+
+    /**
+     * Update the pets with the given IDs with the given values, or delete them if the values
+     * are null, see {@link PetContract#METHOD_BULK_UPDATE}.
+     * <p>
+     * The IDs are matched by chunks of at most {@link #MAX_SQL_VARIABLES}, all in a single
+     * transaction: an invalid value or a failure rolls back the whole operation.
+     *
+     * @return the number of updated or deleted pets.
+     */
+    private int writePetsById(long[] ids, ContentValues values) {
+        int rowCount = 0;
+
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+        columnarSnapshot.beginTransaction(db);
+        try {
+            for (int start = 0; start < ids.length; start += MAX_SQL_VARIABLES) {
+                String[] args = toSelectionArgs(ids, start,
+                        Math.min(ids.length, start + MAX_SQL_VARIABLES));
+                String selection = idsSelection(args.length);
+
+                rowCount += values == null
+                        ? deleteFromPets(selection, args)
+                        : updatePets(values, selection, args);
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            onTransactionFailed();
+            throw e;
+        } finally {
+            columnarSnapshot.endTransaction(db);
+        }
+
+        if (rowCount > 0 && values == null) {
+            notifyChange(PetEntry.CONTENT_URI);
+        } else if (rowCount > 0) {
+            notifyPetsChanged();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Run the database maintenance, see {@link PetContract#METHOD_RUN_MAINTENANCE}.
+     *
+     * @return whether the maintenance ran.
+     */
+    private boolean runMaintenance(Bundle extras) {
+        SQLiteDatabase db = petDbHelper.getWritableDatabase();
+
+        boolean ran;
+        if (extras != null && extras.getBoolean(PetContract.EXTRA_FORCE)) {
+            dbMaintenance.run(db, true);
+            ran = true;
+        } else {
+            long minIntervalMs = extras == null ? 0
+                    : extras.getLong(PetContract.EXTRA_MIN_INTERVAL_MS);
+            boolean checkIntegrity = extras != null
+                    && extras.getBoolean(PetContract.EXTRA_CHECK_INTEGRITY);
+            ran = dbMaintenance.runIfDue(db, minIntervalMs, checkIntegrity);
+        }
+
+        if (ran) {
+            notifyChange(MaintenanceEntry.CONTENT_URI);
+        }
+        return ran;
+    }
+
+    /**
+     * Back the database up, see {@link PetContract#METHOD_BACKUP}.
+     */
+    private Bundle backup(String path, Bundle extras) {
+        File destination = path != null ? new File(path)
+                : new File(getContext().getFilesDir(), DEFAULT_BACKUP_PATH);
+
+        long start = SystemClock.elapsedRealtime();
+        long size;
+        try {
+            size = dbBackup.backup(PetDbHelper.getDatabaseFile(getContext()), destination,
+                    getProgress(extras));
+        } catch (IOException e) {
+            throw new IllegalStateException("Backup to " + destination + " failed", e);
+        }
+
+        Bundle result = new Bundle();
+        result.putString(PetContract.KEY_BACKUP_PATH, destination.getPath());
+        result.putLong(PetContract.KEY_BACKUP_SIZE, size);
+        result.putLong(PetContract.KEY_DURATION_MS, SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    /**
+     * Replace the database with a backup, see {@link PetContract#METHOD_RESTORE}.
+     * <p>
+     * The backup is verified and copied while the provider keeps running. The swap and the
+     * reopen hold the write lock of the database: the operations still running on the old
+     * database complete before it is closed, the following ones wait and use the restored
+     * database. Restores run one at a time, they copy the backup to the same file.
+     */
+    private synchronized Bundle restore(String path, Bundle extras) {
+        if (path == null) {
+            throw new IllegalArgumentException("Restore requires a backup file");
+        }
+        File backup = new File(path);
+        File databaseFile = PetDbHelper.getDatabaseFile(getContext());
+        PetDbBackup.Progress progress = getProgress(extras);
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            File restored = dbBackup.prepareRestore(backup, databaseFile,
+                    PetDbHelper.DATABASE_VERSION, progress);
+
+            progress.report(PetDbBackup.RESTORE_STEP_SWAP - 1, PetDbBackup.RESTORE_STEPS);
+            dbLock.writeLock().lock();
+            try {
+                petStatements.close();
+                petDbHelper.close();
+                dbBackup.swap(restored, databaseFile);
+
+                // An older backup is upgraded right away, not by the next query.
+                progress.report(PetDbBackup.RESTORE_STEP_REOPEN - 1, PetDbBackup.RESTORE_STEPS);
+                breedDictionary.clear();
+                queryCache.invalidate();
+                petDbHelper = new PetDbHelper(getContext());
+                SQLiteDatabase db = petDbHelper.getWritableDatabase();
+
+                if (columnarSnapshot.isEnabled()) {
+                    columnarSnapshot.load(db);
+                }
+            } finally {
+                dbLock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Restore from " + backup + " failed", e);
+        }
+
+        scheduleArchive();
+        progress.report(PetDbBackup.RESTORE_STEPS, PetDbBackup.RESTORE_STEPS);
+
+        // Everything changed.
+        notifyChange(PetEntry.CONTENT_URI);
+        notifyChange(MaintenanceEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putString(PetContract.KEY_BACKUP_PATH, backup.getPath());
+        result.putLong(PetContract.KEY_DURATION_MS, SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    /**
+     * Reopen the database with the given profile, see {@link PetContract#METHOD_SET_DB_PROFILE}.
+     * <p>
+     * The reopen holds the write lock of the database, like the swap of a restore. The content
+     * doesn't change, the observers are not notified.
+     */
+    private Bundle setDbProfile(PetDbProfile profile) {
+        dbLock.writeLock().lock();
+        try {
+            PetDbProfile.setSelected(getContext(), profile);
+
+            if (petDbHelper.getProfile() != profile) {
+                petStatements.close();
+                petDbHelper.close();
+                petDbHelper = new PetDbHelper(getContext());
+            }
+            // Opened right away, the settings are known once the profile is applied.
+            petDbHelper.getWritableDatabase();
+
+            Bundle result = new Bundle();
+            result.putString(PetContract.KEY_DB_PROFILE_SETTINGS,
+                    petDbHelper.getProfileSettings());
+            return result;
+        } finally {
+            dbLock.writeLock().unlock();
+        }
+    }
+
+    private static PetDbBackup.Progress getProgress(Bundle extras) {
+        ResultReceiver receiver = extras == null ? null
+                : (ResultReceiver) extras.getParcelable(PetContract.EXTRA_PROGRESS_RECEIVER);
+        return new PetDbBackup.Progress(receiver);
     }
-}
\ No newline at end of file
+}
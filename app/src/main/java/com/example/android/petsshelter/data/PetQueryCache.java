@@ -0,0 +1,490 @@
+package com.example.android.petsshelter.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.LruCache;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-memory cache of the pet lists queried from {@link PetProvider}.
+ * <p>
+ * Results are keyed by the normalized query: the table, projection, selection, selection
+ * arguments and sort order, with the white space of the SQL collapsed. They are stored as
+ * immutable {@link Snapshot}s, the column names and one flat array of values, which take a
+ * fraction of the memory of a cursor window. A hit returns a new cursor over the shared
+ * snapshot, without going through SQLite.
+ * <p>
+ * Every committed write bumps the write version, see {@link #invalidate()}. A result read at
+ * an older version is never returned, it is dropped when found. Results are evicted in least
+ * recently used order once their estimated size exceeds the memory limit.
+ */
+final class PetQueryCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Estimated sizes, in bytes, of the objects held by a snapshot (object header, fields and
+     * padding on a 32-bit runtime). */
+    private static final int OBJECT_BYTES = 16;
+    private static final int STRING_BYTES = 40;
+    private static final int REFERENCE_BYTES = 4;
+
+    private final LruCache<String, Snapshot> snapshots;
+
+    // Results larger than this are not cached, they would evict most of the others.
+    private final int maxSnapshotBytes;
+
+    private final AtomicLong writeVersion = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * @param maxBytes The memory limit of the cached results, a single result is cached only if
+     *                 it takes at most a quarter of it.
+     */
+    PetQueryCache(int maxBytes) {
+        snapshots = new LruCache<String, Snapshot>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Snapshot snapshot) {
+                return STRING_BYTES + 2 * key.length() + snapshot.sizeBytes;
+            }
+        };
+        maxSnapshotBytes = maxBytes / 4;
+    }
+
+    /**
+     * Returns the key of the given query. Queries that differ only by the white space of their
+     * SQL get the same key.
+     */
+    static String keyOf(String table, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        // Each part is prefixed by its length, the key can't be mistaken for another query's.
+        StringBuilder key = new StringBuilder();
+        appendPart(key, table);
+        appendParts(key, projection, true);
+        appendPart(key, normalizeSql(selection));
+        // The arguments are values, their white space matters.
+        appendParts(key, selectionArgs, false);
+        appendPart(key, normalizeSql(sortOrder));
+        return key.toString();
+    }
+
+    private static void appendParts(StringBuilder key, String[] parts, boolean sql) {
+        if (parts == null) {
+            key.append('-');
+            return;
+        }
+        key.append(parts.length).append('[');
+        for (String part : parts) {
+            appendPart(key, sql ? normalizeSql(part) : part);
+        }
+    }
+
+    private static void appendPart(StringBuilder key, String part) {
+        if (part == null) {
+            key.append('-');
+        } else {
+            key.append(part.length()).append(':').append(part);
+        }
+    }
+
+    /**
+     * Returns the given SQL fragment trimmed, with every run of white space outside of the
+     * string literals replaced by a single space. Null and empty fragments are null.
+     */
+    static String normalizeSql(String sql) {
+        if (sql == null) {
+            return null;
+        }
+
+        StringBuilder normalized = new StringBuilder(sql.length());
+        boolean inLiteral = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (!inLiteral && Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            if (c == '\'') {
+                // An escaped quote ('') closes and reopens the literal.
+                inLiteral = !inLiteral;
+            }
+            normalized.append(c);
+        }
+        return normalized.length() == 0 ? null : normalized.toString();
+    }
+
+    /**
+     * Returns the version of the data, to take before running a query whose result is
+     * given to {@link #put(String, long, Cursor)}.
+     */
+    long getWriteVersion() {
+        return writeVersion.get();
+    }
+
+    /**
+     * Report a committed write: the results read before it are stale.
+     */
+    void invalidate() {
+        writeVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns a cursor over the cached result of the given query, or null if there's none or
+     * it is stale.
+     */
+    Cursor get(String key) {
+        if (!enabled) {
+            return null;
+        }
+
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && snapshot.version != writeVersion.get()) {
+            snapshots.remove(key);
+            snapshot = null;
+        }
+
+        if (snapshot == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Cache the result of the given query, read at the given write version, and return the
+     * cursor to give to the caller in place of the given one. A result that is too large is not
+     * cached: the rows are read only until the limit is reached, and the given cursor is
+     * returned before its first row. A result already stale when read is returned but not
+     * cached.
+     */
+    Cursor put(String key, long version, Cursor cursor) {
+        if (!enabled) {
+            return cursor;
+        }
+
+        Snapshot snapshot;
+        try {
+            snapshot = Snapshot.read(cursor, version, maxSnapshotBytes);
+        } catch (RuntimeException e) {
+            // e.g. the query was cancelled while the window was filled.
+            cursor.close();
+            throw e;
+        }
+
+        if (snapshot == null) {
+            cursor.moveToPosition(-1);
+            return cursor;
+        }
+
+        cursor.close();
+        if (version == writeVersion.get()) {
+            snapshots.put(key, snapshot);
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Start caching the results again, after {@link #disable()}.
+     */
+    void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Drop the cached results and stop caching new ones.
+     *
+     * @return whether the cache was enabled.
+     */
+    boolean disable() {
+        boolean wasEnabled = enabled;
+        enabled = false;
+        snapshots.evictAll();
+        return wasEnabled;
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of results evicted, to stay under the memory limit or because the
+     * cache was disabled.
+     */
+    long getEvictionCount() {
+        return snapshots.evictionCount();
+    }
+
+    /**
+     * Returns the estimated memory used by the cached results, in bytes.
+     */
+    int getSizeBytes() {
+        return snapshots.size();
+    }
+
+    int getMaxSizeBytes() {
+        return snapshots.maxSize();
+    }
+
+    /**
+     * An immutable copy of a query result.
+     */
+    static final class Snapshot {
+
+        final String[] columnNames;
+
+        /* The values of all the rows one after the other: null, Long, Double, String or
+         * byte[]. Equal strings are shared within a snapshot. */
+        final Object[] values;
+
+        final int rowCount;
+
+        // The write version the result was read at.
+        final long version;
+
+        // The estimated memory used by the snapshot.
+        final int sizeBytes;
+
+        private Snapshot(String[] columnNames, Object[] values, int rowCount, long version,
+                         int sizeBytes) {
+            this.columnNames = columnNames;
+            this.values = values;
+            this.rowCount = rowCount;
+            this.version = version;
+            this.sizeBytes = sizeBytes;
+        }
+
+        /**
+         * Read all the rows of the cursor, as long as they fit in the given size.
+         *
+         * @return the snapshot, or null if it would take more than the given size. The rows
+         * are then only read up to the one that goes over.
+         */
+        static Snapshot read(Cursor cursor, long version, int maxBytes) {
+            String[] columnNames = cursor.getColumnNames().clone();
+            int columnCount = columnNames.length;
+
+            long sizeBytes = OBJECT_BYTES;
+            for (String columnName : columnNames) {
+                sizeBytes += STRING_BYTES + 2 * columnName.length();
+            }
+            if (sizeBytes > maxBytes) {
+                return null;
+            }
+
+            // Grown row by row, the size is checked before the next row is read.
+            ArrayList<Object> values = new ArrayList<>();
+            HashMap<String, String> strings = new HashMap<>();
+            int rowCount = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                sizeBytes += (long) REFERENCE_BYTES * columnCount;
+                for (int column = 0; column < columnCount; column++) {
+                    Object value;
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            value = null;
+                            break;
+
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            value = cursor.getLong(column);
+                            sizeBytes += OBJECT_BYTES;
+                            break;
+
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            value = cursor.getDouble(column);
+                            sizeBytes += OBJECT_BYTES;
+                            break;
+
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            value = blob;
+                            sizeBytes += OBJECT_BYTES + blob.length;
+                            break;
+
+                        default:
+                            String string = cursor.getString(column);
+                            String shared = strings.get(string);
+                            if (shared == null) {
+                                strings.put(string, string);
+                                shared = string;
+                                sizeBytes += STRING_BYTES + 2 * string.length();
+                            }
+                            value = shared;
+                            break;
+                    }
+                    values.add(value);
+                }
+                rowCount++;
+
+                if (sizeBytes > maxBytes) {
+                    return null;
+                }
+            }
+
+            return new Snapshot(columnNames, values.toArray(), rowCount, version,
+                    (int) sizeBytes);
+        }
+    }
+
+    /**
+     * A read-only cursor over a snapshot, any number of them can share the same snapshot.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+
+        private final Snapshot snapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= snapshot.columnNames.length) {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+            checkPosition();
+            return snapshot.values[getPosition() * snapshot.columnNames.length + column];
+        }
+
+        @Override
+        public int getCount() {
+            return snapshot.rowCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            // Copied, the snapshot is shared.
+            return snapshot.columnNames.clone();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return snapshot.columnNames.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return snapshot.columnNames[column];
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            // Like AbstractCursor, without copying the names: "table.column" matches the column.
+            int lastDot = columnName.lastIndexOf('.');
+            if (lastDot != -1) {
+                columnName = columnName.substring(lastDot + 1);
+            }
+            String[] columnNames = snapshot.columnNames;
+            for (int i = 0; i < columnNames.length; i++) {
+                if (columnNames[i].equalsIgnoreCase(columnName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            if (value instanceof byte[]) {
+                return new String((byte[]) value, UTF_8);
+            }
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return null;
+            } else if (value instanceof byte[]) {
+                // Copied, the snapshot is shared.
+                return ((byte[]) value).clone();
+            }
+            return value.toString().getBytes(UTF_8);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value instanceof Long) {
+                return (Long) value;
+            }
+            return (long) toDouble(value);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return toDouble(get(column));
+        }
+
+        /**
+         * Returns the given value as a number, like SQLite: null and text that isn't a number
+         * are 0.
+         */
+        private static double toDouble(Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            if (value instanceof String) {
+                try {
+                    return Double.parseDouble(((String) value).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+    }
+}
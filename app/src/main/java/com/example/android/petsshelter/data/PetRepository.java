@@ -0,0 +1,353 @@
+package com.example.android.petsshelter.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process wide, observable access to the pets of {@link PetProvider}.
+ * <p>
+ * Everyone observing the same query (URI, projection, selection, selection arguments and sort
+ * order) shares a single result and a single in-flight load. Results are immutable lists of
+ * {@link Pet}s, they are reloaded when the provider notifies a change of the queried URI.
+ * <p>
+ * A query is kept alive for a short while after its last observer leaves, so that a screen
+ * recreated by a configuration change gets the previous result right away instead of running
+ * the query again. A query is cancelled in SQLite when it is released while loading.
+ * <p>
+ * The methods of this class, and the observers, are called on the main thread.
+ */
+public final class PetRepository {
+
+    private static final String TAG = PetRepository.class.getSimpleName();
+
+    // How long a query without observers is kept alive.
+    private static final long RELEASE_DELAY_MS = 10000;
+
+    // Number of threads running the queries.
+    private static final int QUERY_THREADS = 2;
+
+    private static PetRepository instance;
+
+    /**
+     * Receives the results of an observed query.
+     */
+    public interface Observer<T> {
+        void onChanged(T value);
+    }
+
+    /**
+     * The link between an observer and its query, used to stop observing.
+     */
+    public final class Subscription {
+
+        private final LiveQuery query;
+        private final Observer<List<Pet>> observer;
+
+        private Subscription(LiveQuery query, Observer<List<Pet>> observer) {
+            this.query = query;
+            this.observer = observer;
+        }
+
+        /**
+         * Stop receiving results. Calling this more than once has no effect.
+         */
+        public void unsubscribe() {
+            query.removeObserver(observer);
+        }
+
+        /**
+         * Stop receiving results, and release the query right away if nobody else observes it:
+         * a load in progress is cancelled instead of being kept for a configuration change.
+         * Calling this more than once has no effect.
+         */
+        public void cancel() {
+            query.removeObserver(observer);
+            query.releaseIfUnobserved();
+        }
+    }
+
+    private final ContentResolver contentResolver;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService queryExecutor = Executors.newFixedThreadPool(QUERY_THREADS);
+
+    private final HashMap<QueryKey, LiveQuery> liveQueries = new HashMap<>();
+
+    private PetRepository(Context context) {
+        contentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the process wide repository.
+     */
+    public static synchronized PetRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new PetRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Observe the pets returned by the given query. The observer gets the current result as
+     * soon as it is available, then a new result after every change.
+     */
+    public Subscription observePets(Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder,
+                                    Observer<List<Pet>> observer) {
+        QueryKey key = new QueryKey(uri, projection, selection, selectionArgs, sortOrder);
+
+        LiveQuery query = liveQueries.get(key);
+        if (query == null) {
+            query = new LiveQuery(key);
+            liveQueries.put(key, query);
+            query.start();
+        }
+
+        query.addObserver(observer);
+        return new Subscription(query, observer);
+    }
+
+    /**
+     * Observe a single pet given by its content URI. The observer gets null if there's no such
+     * pet.
+     */
+    public Subscription observePet(Uri petUri, String[] projection,
+                                   final Observer<Pet> observer) {
+        return observePets(petUri, projection, null, null, null,
+                new Observer<List<Pet>>() {
+                    @Override
+                    public void onChanged(List<Pet> pets) {
+                        observer.onChanged(pets.isEmpty() ? null : pets.get(0));
+                    }
+                });
+    }
+
+    /**
+     * Run the query and read all the pets. Called on a query thread.
+     *
+     * @return the pets, or null if the query failed or was cancelled.
+     */
+    private List<Pet> runQuery(QueryKey key, CancellationSignal cancellationSignal) {
+        try {
+            Cursor cursor = contentResolver.query(key.uri, key.projection, key.selection,
+                    key.selectionArgs, key.sortOrder, cancellationSignal);
+            if (cursor == null) {
+                Log.e(TAG, "runQuery: no cursor for " + key.uri);
+                return null;
+            }
+
+            try {
+                // The cursor window is filled here, still under the cancellation signal.
+                List<Pet> pets = new ArrayList<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    pets.add(Pet.fromCursor(cursor));
+                }
+                return Collections.unmodifiableList(pets);
+            } finally {
+                cursor.close();
+            }
+        } catch (OperationCanceledException e) {
+            Log.i(TAG, "runQuery: cancelled " + key.uri);
+            return null;
+        }
+    }
+
+    /**
+     * A query shared by all its observers. It holds the latest result and reloads it when the
+     * provider notifies a change.
+     */
+    private final class LiveQuery extends ContentObserver {
+
+        private final QueryKey key;
+
+        private final List<Observer<List<Pet>>> observers = new ArrayList<>();
+
+        // The latest result, null until the first load completes.
+        private List<Pet> result;
+
+        private boolean loading = false;
+
+        // Cancels the load in progress, if any.
+        private CancellationSignal cancellationSignal;
+
+        // Whether a change was notified while loading, which calls for another load.
+        private boolean stale = false;
+
+        private boolean released = false;
+
+        private final Runnable releaseRunnable = new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        };
+
+        LiveQuery(QueryKey key) {
+            super(mainHandler);
+            this.key = key;
+        }
+
+        void start() {
+            contentResolver.registerContentObserver(key.uri, true, this);
+            load();
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            load();
+        }
+
+        void addObserver(final Observer<List<Pet>> observer) {
+            mainHandler.removeCallbacks(releaseRunnable);
+            observers.add(observer);
+
+            if (result != null) {
+                // Deliver the current result, unless the observer leaves first.
+                final List<Pet> current = result;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (observers.contains(observer)) {
+                            observer.onChanged(current);
+                        }
+                    }
+                });
+            }
+        }
+
+        void removeObserver(Observer<List<Pet>> observer) {
+            if (observers.remove(observer) && observers.isEmpty()) {
+                mainHandler.postDelayed(releaseRunnable, RELEASE_DELAY_MS);
+            }
+        }
+
+        void releaseIfUnobserved() {
+            if (observers.isEmpty() && !released) {
+                mainHandler.removeCallbacks(releaseRunnable);
+                release();
+            }
+        }
+
+        private void load() {
+            if (released) {
+                return;
+            }
+            if (loading) {
+                stale = true;
+                return;
+            }
+
+            loading = true;
+            stale = false;
+            final CancellationSignal signal = new CancellationSignal();
+            cancellationSignal = signal;
+            queryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final List<Pet> pets = runQuery(key, signal);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoaded(pets);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void onLoaded(List<Pet> pets) {
+            loading = false;
+            cancellationSignal = null;
+            if (released) {
+                return;
+            }
+
+            if (pets != null) {
+                result = pets;
+                for (Observer<List<Pet>> observer : new ArrayList<>(observers)) {
+                    observer.onChanged(pets);
+                }
+            }
+
+            if (stale) {
+                load();
+            }
+        }
+
+        private void release() {
+            released = true;
+            if (cancellationSignal != null) {
+                // Nobody needs the result anymore, stop the query in SQLite.
+                cancellationSignal.cancel();
+            }
+            contentResolver.unregisterContentObserver(this);
+            liveQueries.remove(key);
+        }
+    }
+
+    /**
+     * Identifies a query, two queries with equal keys share their results.
+     */
+    private static final class QueryKey {
+
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+
+        QueryKey(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder) {
+            this.uri = uri;
+            this.projection = projection == null ? null : projection.clone();
+            this.selection = selection;
+            this.selectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueryKey)) {
+                return false;
+            }
+
+            QueryKey other = (QueryKey) o;
+            return uri.equals(other.uri)
+                    && Arrays.equals(projection, other.projection)
+                    && TextUtils.equals(selection, other.selection)
+                    && Arrays.equals(selectionArgs, other.selectionArgs)
+                    && TextUtils.equals(sortOrder, other.sortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = uri.hashCode();
+            hash = 31 * hash + Arrays.hashCode(projection);
+            hash = 31 * hash + (selection == null ? 0 : selection.hashCode());
+            hash = 31 * hash + Arrays.hashCode(selectionArgs);
+            hash = 31 * hash + (sortOrder == null ? 0 : sortOrder.hashCode());
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.petsshelter.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.petsshelter.data.PetContract.EventEntry;
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+import java.util.HashMap;
+
+/**
+ * The compiled statements that write the pets table, one per column set, and the event log.
+ * <p>
+ * Each statement is compiled once and then only rebound, so a write doesn't build any SQL nor
+ * box its values, and a batch of writes reuses the same statement for every row. The cache
+ * follows the database: the statements are compiled again when it is replaced.
+ */
+class PetStatements {
+
+    private static final String SQL_INSERT =
+            "INSERT INTO " + PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_PET_NAME + ", " +
+                    PetEntry.COL_BREED_ID + ", " +
+                    PetEntry.COL_PET_GENDER + ", " +
+                    PetEntry.COL_PET_WEIGHT + ", " +
+                    PetEntry.COL_PET_STATUS + ", " +
+                    PetEntry.COL_SHELTER_ID + ", " +
+                    PetEntry.COL_FINGERPRINT + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // The columns of the editor.
+    static final String SQL_UPDATE_DETAILS =
+            "UPDATE " + PetEntry.TABLE_NAME + " SET " +
+                    PetEntry.COL_PET_NAME + "=?, " +
+                    PetEntry.COL_BREED_ID + "=?, " +
+                    PetEntry.COL_PET_GENDER + "=?, " +
+                    PetEntry.COL_PET_WEIGHT + "=?, " +
+                    PetEntry.COL_FINGERPRINT + "=? " +
+                    "WHERE " + PetEntry.COL_ID + "=?";
+
+    private static final String SQL_UPDATE_STATUS =
+            "UPDATE " + PetEntry.TABLE_NAME + " SET " +
+                    PetEntry.COL_PET_STATUS + "=? " +
+                    "WHERE " + PetEntry.COL_ID + "=?";
+
+    private static final String SQL_UPDATE_FINGERPRINT =
+            "UPDATE " + PetEntry.TABLE_NAME + " SET " +
+                    PetEntry.COL_FINGERPRINT + "=? " +
+                    "WHERE " + PetEntry.COL_ID + "=?";
+
+    private static final String SQL_INSERT_EVENT =
+            "INSERT INTO " + EventEntry.TABLE_NAME + "(" +
+                    EventEntry.COL_PET_ID + ", " +
+                    EventEntry.COL_TIMESTAMP + ", " +
+                    EventEntry.COL_TYPE + ", " +
+                    EventEntry.COL_VALUE + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_CREATE_DAILY_BUCKET =
+            createBucketSql(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY);
+
+    private static final String SQL_INCREMENT_DAILY_BUCKET =
+            incrementBucketSql(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY);
+
+    private static final String SQL_CREATE_MONTHLY_BUCKET =
+            createBucketSql(EventEntry.MONTHLY_TABLE_NAME, EventEntry.COL_MONTH);
+
+    private static final String SQL_INCREMENT_MONTHLY_BUCKET =
+            incrementBucketSql(EventEntry.MONTHLY_TABLE_NAME, EventEntry.COL_MONTH);
+
+    // The database the statements were compiled for.
+    private SQLiteDatabase db;
+
+    private final HashMap<String, SQLiteStatement> statements = new HashMap<>();
+
+    /**
+     * Insert a pet.
+     *
+     * @return the ID of the new pet.
+     */
+    synchronized long insert(SQLiteDatabase db, String name, Long breedId, int gender,
+                             int weight, int status, long shelterId, long fingerprint) {
+        SQLiteStatement statement = getStatement(db, SQL_INSERT);
+        statement.bindString(1, name);
+        bindLongOrNull(statement, 2, breedId);
+        statement.bindLong(3, gender);
+        statement.bindLong(4, weight);
+        statement.bindLong(5, status);
+        statement.bindLong(6, shelterId);
+        statement.bindLong(7, fingerprint);
+        return statement.executeInsert();
+    }
+
+    /**
+     * Update the name, breed, gender and weight of a pet.
+     *
+     * @return the number of updated rows, 0 or 1.
+     */
+    synchronized int updateDetails(SQLiteDatabase db, long id, String name, Long breedId,
+                                   int gender, int weight, long fingerprint) {
+        SQLiteStatement statement = getStatement(db, SQL_UPDATE_DETAILS);
+        statement.bindString(1, name);
+        bindLongOrNull(statement, 2, breedId);
+        statement.bindLong(3, gender);
+        statement.bindLong(4, weight);
+        statement.bindLong(5, fingerprint);
+        statement.bindLong(6, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Update the fingerprint of a pet, see {@link PetFingerprint}.
+     */
+    synchronized void updateFingerprint(SQLiteDatabase db, long id, long fingerprint) {
+        SQLiteStatement statement = getStatement(db, SQL_UPDATE_FINGERPRINT);
+        statement.bindLong(1, fingerprint);
+        statement.bindLong(2, id);
+        statement.executeUpdateDelete();
+    }
+
+    /**
+     * Update the adoption status of a pet.
+     *
+     * @return the number of updated rows, 0 or 1.
+     */
+    synchronized int updateStatus(SQLiteDatabase db, long id, int status) {
+        SQLiteStatement statement = getStatement(db, SQL_UPDATE_STATUS);
+        statement.bindLong(1, status);
+        statement.bindLong(2, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Append an event to the log.
+     */
+    synchronized void insertEvent(SQLiteDatabase db, long petId, long timestamp, int type,
+                                  Long value) {
+        SQLiteStatement statement = getStatement(db, SQL_INSERT_EVENT);
+        statement.bindLong(1, petId);
+        statement.bindLong(2, timestamp);
+        statement.bindLong(3, type);
+        bindLongOrNull(statement, 4, value);
+        statement.executeInsert();
+    }
+
+    /**
+     * Add an event to the given day of the daily rollup, creating the bucket if needed.
+     */
+    synchronized void addToDailyRollup(SQLiteDatabase db, long day, int type, long value) {
+        addToRollup(db, SQL_CREATE_DAILY_BUCKET, SQL_INCREMENT_DAILY_BUCKET, day, type, value);
+    }
+
+    /**
+     * Add an event to the given month of the monthly rollup, creating the bucket if needed.
+     */
+    synchronized void addToMonthlyRollup(SQLiteDatabase db, long month, int type, long value) {
+        addToRollup(db, SQL_CREATE_MONTHLY_BUCKET, SQL_INCREMENT_MONTHLY_BUCKET, month, type,
+                value);
+    }
+
+    private void addToRollup(SQLiteDatabase db, String createSql, String incrementSql,
+                             long bucket, int type, long value) {
+        // Upserts need SQLite 3.24, the row is created empty then incremented.
+        SQLiteStatement create = getStatement(db, createSql);
+        create.bindLong(1, bucket);
+        create.bindLong(2, type);
+        create.executeInsert();
+
+        SQLiteStatement increment = getStatement(db, incrementSql);
+        increment.bindLong(1, value);
+        increment.bindLong(2, bucket);
+        increment.bindLong(3, type);
+        increment.executeUpdateDelete();
+    }
+
+    /**
+     * Release all the statements.
+     */
+    synchronized void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        db = null;
+    }
+
+    private SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+        if (db != this.db) {
+            close();
+            this.db = db;
+        }
+
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private static String createBucketSql(String table, String bucketColumn) {
+        return "INSERT OR IGNORE INTO " + table + "(" +
+                bucketColumn + ", " +
+                EventEntry.COL_TYPE + ", " +
+                EventEntry.COL_EVENT_COUNT + ", " +
+                EventEntry.COL_VALUE_SUM + ") VALUES (?, ?, 0, 0)";
+    }
+
+    private static String incrementBucketSql(String table, String bucketColumn) {
+        return "UPDATE " + table + " SET " +
+                EventEntry.COL_EVENT_COUNT + "=" + EventEntry.COL_EVENT_COUNT + " + 1, " +
+                EventEntry.COL_VALUE_SUM + "=" + EventEntry.COL_VALUE_SUM + " + ? " +
+                "WHERE " + bucketColumn + "=? AND " + EventEntry.COL_TYPE + "=?";
+    }
+
+    private static void bindLongOrNull(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+}
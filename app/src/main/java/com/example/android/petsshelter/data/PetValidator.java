@@ -0,0 +1,65 @@
+package com.example.android.petsshelter.data;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.data.PetContract.RecordEntry;
+
+/**
+ * Checks the values written to the pets table and to their medical records, shared by the
+ * content provider and {@link PetWriter}.
+ * <p>
+ * Every check throws an {@link IllegalArgumentException} for an invalid value.
+ */
+final class PetValidator {
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private PetValidator() {
+    }
+
+    static void checkName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Pet requires a name!");
+        }
+    }
+
+    static void checkGender(Integer gender) {
+        if (gender == null || !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException(
+                    "Pet gender can be only: 0 for unknown, 1 for male, 2 for female");
+        }
+    }
+
+    static void checkWeight(Integer weight) {
+        // Negative weights are not accepted.
+        if (weight == null || weight < 0) {
+            throw new IllegalArgumentException("Invalid weight " + weight);
+        }
+    }
+
+    static void checkShelter(Long shelterId) {
+        if (shelterId == null || shelterId <= 0) {
+            throw new IllegalArgumentException("Invalid shelter " + shelterId);
+        }
+    }
+
+    static void checkStatus(Integer status) {
+        if (status == null || !PetEntry.isValidStatus(status)) {
+            throw new IllegalArgumentException(
+                    "Pet status can be only: 0 for available, 1 for adopted");
+        }
+    }
+
+    static void checkRecordDate(Long date) {
+        if (date == null || date < 0) {
+            throw new IllegalArgumentException("Invalid record date " + date);
+        }
+    }
+
+    static void checkRecordType(Integer type) {
+        if (type == null || !RecordEntry.isValidType(type)) {
+            throw new IllegalArgumentException(
+                    "Record type can be only: 0 for vaccination, 1 for checkup, 2 for treatment");
+        }
+    }
+}
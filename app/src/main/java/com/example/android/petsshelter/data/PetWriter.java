@@ -0,0 +1,188 @@
+package com.example.android.petsshelter.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.debug.DebugInstrumentation;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Typed, in-process writes to the pets of {@link PetProvider}.
+ * <p>
+ * Unlike the {@link android.content.ContentResolver} methods, the values are passed as
+ * primitives and bound straight to compiled statements, without a {@link
+ * android.content.ContentValues} nor any SQL built per write. The values are checked like the
+ * provider checks them, and the observers of the pets are notified the same way.
+ * <p>
+ * Only available in the process of the provider.
+ */
+public final class PetWriter {
+
+    private final PetProvider provider;
+
+    private final PetColumnarSnapshot columnarSnapshot = PetColumnarSnapshot.getInstance();
+
+    PetWriter(PetProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Returns the writer of the pets provider.
+     *
+     * @throws IllegalStateException if the provider runs in another process.
+     */
+    public static PetWriter getInstance(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(PetContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IllegalStateException("No provider for " + PetContract.CONTENT_AUTHORITY);
+        }
+
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            if (!(provider instanceof PetProvider)) {
+                throw new IllegalStateException("The pets provider runs in another process");
+            }
+            return ((PetProvider) provider).getPetWriter();
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * Insert an available pet into the given shelter.
+     *
+     * @return the ID of the new pet, or -1 if it couldn't be inserted.
+     */
+    public long insert(long shelterId, String name, String breed, int gender, int weight) {
+        DebugInstrumentation.noteDatabaseAccess("PetWriter.insert");
+
+        checkPet(name, gender, weight);
+        PetValidator.checkShelter(shelterId);
+
+        long id;
+        Lock lock = provider.getDatabaseLock();
+        lock.lock();
+        try {
+            id = provider.insertPetRow(provider.getWritableDatabase(), name, breed, gender,
+                    weight, PetEntry.STATUS_AVAILABLE, shelterId);
+        } finally {
+            lock.unlock();
+        }
+        if (id != -1) {
+            provider.notifyPetsChanged();
+        }
+        return id;
+    }
+
+    /**
+     * Insert all the given pets into the given shelter, in a single transaction reusing the
+     * same statement for every pet, and notify the observers once. The IDs of the given pets
+     * are ignored.
+     * <p>
+     * An invalid pet rolls back the whole batch.
+     *
+     * @return the number of inserted pets.
+     */
+    public int insertAll(long shelterId, List<Pet> pets) {
+        DebugInstrumentation.noteDatabaseAccess("PetWriter.insertAll");
+
+        PetValidator.checkShelter(shelterId);
+
+        int rowsInserted = 0;
+
+        Lock lock = provider.getDatabaseLock();
+        lock.lock();
+        try {
+            SQLiteDatabase db = provider.getWritableDatabase();
+            // Like the provider, the snapshot gets the new pets only if the batch commits.
+            columnarSnapshot.beginTransaction(db);
+            try {
+                for (Pet pet : pets) {
+                    checkPet(pet.getName(), pet.getGender(), pet.getWeight());
+                    PetValidator.checkStatus(pet.getStatus());
+
+                    if (provider.insertPetRow(db, pet.getName(), pet.getBreed(),
+                            pet.getGender(), pet.getWeight(), pet.getStatus(), shelterId) != -1) {
+                        rowsInserted++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                provider.onTransactionFailed();
+                throw e;
+            } finally {
+                columnarSnapshot.endTransaction(db);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (rowsInserted > 0) {
+            provider.notifyPetsChanged();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Update the name, breed, gender and weight of the given pet.
+     *
+     * @return whether the pet was updated.
+     */
+    public boolean update(long id, String name, String breed, int gender, int weight) {
+        DebugInstrumentation.noteDatabaseAccess("PetWriter.update");
+
+        checkPet(name, gender, weight);
+
+        int rowsUpdated;
+        Lock lock = provider.getDatabaseLock();
+        lock.lock();
+        try {
+            rowsUpdated = provider.updatePetRow(id, name, breed, gender, weight);
+        } finally {
+            lock.unlock();
+        }
+        if (rowsUpdated == 0) {
+            return false;
+        }
+        provider.notifyPetsChanged();
+        return true;
+    }
+
+    /**
+     * Update the adoption status of the given pet. Adopted pets are moved to the archive in
+     * the background.
+     *
+     * @return whether the pet was updated.
+     */
+    public boolean setStatus(long id, int status) {
+        DebugInstrumentation.noteDatabaseAccess("PetWriter.setStatus");
+
+        PetValidator.checkStatus(status);
+
+        int rowsUpdated;
+        Lock lock = provider.getDatabaseLock();
+        lock.lock();
+        try {
+            rowsUpdated = provider.updatePetStatus(id, status);
+        } finally {
+            lock.unlock();
+        }
+        if (rowsUpdated == 0) {
+            return false;
+        }
+        provider.notifyPetsChanged();
+        return true;
+    }
+
+    private static void checkPet(String name, int gender, int weight) {
+        PetValidator.checkName(name);
+        PetValidator.checkGender(gender);
+        PetValidator.checkWeight(weight);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.petsshelter.debug;
+
+import android.os.Build;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.strictmode.Violation;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.example.android.petsshelter.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Debug only instrumentation that catches disk and database access on the main thread.
+ * <p>
+ * The StrictMode policies only record the violations (with their stack traces) instead of
+ * crashing the app. Violations are written to the log, and on Android P and above the most
+ * recent ones are also kept in memory so they can be inspected with {@link #getViolations()}.
+ */
+public final class DebugInstrumentation {
+
+    private static final String TAG = DebugInstrumentation.class.getSimpleName();
+
+    // Max number of violations kept in memory, the oldest are dropped first.
+    private static final int MAX_RECORDED_VIOLATIONS = 50;
+
+    private static final LinkedList<String> violations = new LinkedList<>();
+
+    private static final FrameTimeHistogram scrollHistogram = new FrameTimeHistogram();
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private DebugInstrumentation() {
+    }
+
+    /**
+     * Install the StrictMode policies. Does nothing in release builds.
+     */
+    public static void install() {
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+
+        StrictMode.ThreadPolicy.Builder threadPolicy = new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .detectCustomSlowCalls()
+                .penaltyLog();
+
+        StrictMode.VmPolicy.Builder vmPolicy = new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            addRecordingListeners(threadPolicy, vmPolicy);
+        }
+
+        StrictMode.setThreadPolicy(threadPolicy.build());
+        StrictMode.setVmPolicy(vmPolicy.build());
+
+        Log.i(TAG, "install: StrictMode policies installed");
+    }
+
+    /**
+     * Flag an access to the database made on the main thread.
+     * <p>
+     * SQLite does its I/O below StrictMode's radar, so database entry points call this to make
+     * the access show up as a custom slow call, with the stack trace of the caller.
+     */
+    public static void noteDatabaseAccess(String operation) {
+        if (BuildConfig.DEBUG && Looper.myLooper() == Looper.getMainLooper()) {
+            StrictMode.noteSlowCall("Database " + operation + " on the main thread");
+        }
+    }
+
+    /**
+     * Returns the frame time histogram accumulated while the pets list was scrolling.
+     */
+    public static FrameTimeHistogram getScrollHistogram() {
+        return scrollHistogram;
+    }
+
+    /**
+     * Returns the most recent violations (oldest first), each one with its stack trace.
+     * Violations are only recorded on Android P and above.
+     */
+    public static List<String> getViolations() {
+        synchronized (violations) {
+            return new ArrayList<>(violations);
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    private static void addRecordingListeners(StrictMode.ThreadPolicy.Builder threadPolicy,
+                                              StrictMode.VmPolicy.Builder vmPolicy) {
+        // Record on the thread that caused the violation, the listener only appends to a list.
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        threadPolicy.penaltyListener(directExecutor, new StrictMode.OnThreadViolationListener() {
+            @Override
+            public void onThreadViolation(Violation v) {
+                recordViolation(v);
+            }
+        });
+
+        vmPolicy.penaltyListener(directExecutor, new StrictMode.OnVmViolationListener() {
+            @Override
+            public void onVmViolation(Violation v) {
+                recordViolation(v);
+            }
+        });
+    }
+
+    private static void recordViolation(Throwable violation) {
+        String trace = Log.getStackTraceString(violation);
+        synchronized (violations) {
+            if (violations.size() == MAX_RECORDED_VIOLATIONS) {
+                violations.removeFirst();
+            }
+            violations.addLast(trace);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.petsshelter.debug;
+
+import java.util.Locale;
+
+/**
+ * A fixed bucket histogram of frame durations.
+ * <p>
+ * The bucket bounds are picked around the 60 Hz frame budget (16.7 ms) so that dropped frames
+ * show up as counts in the buckets above it.
+ */
+public final class FrameTimeHistogram {
+
+    // Upper bounds (inclusive) of each bucket in milliseconds, the last bucket is unbounded.
+    private static final int[] BUCKET_BOUNDS_MS = {8, 16, 24, 33, 50, 100, 200};
+
+    // Frames longer than this are counted as janky.
+    private static final long JANK_THRESHOLD_NANOS = 17_000_000L;
+
+    private final long[] counts = new long[BUCKET_BOUNDS_MS.length + 1];
+
+    private long frameCount;
+    private long jankyFrameCount;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Add a frame with the given duration in nanoseconds.
+     */
+    public synchronized void record(long frameNanos) {
+        long frameMs = frameNanos / 1_000_000L;
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && frameMs > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        counts[bucket]++;
+
+        frameCount++;
+        totalNanos += frameNanos;
+        maxNanos = Math.max(maxNanos, frameNanos);
+        if (frameNanos > JANK_THRESHOLD_NANOS) {
+            jankyFrameCount++;
+        }
+    }
+
+    /**
+     * Add all the frames recorded by another histogram.
+     */
+    public void merge(FrameTimeHistogram other) {
+        long[] otherCounts;
+        long otherFrames;
+        long otherJanky;
+        long otherTotal;
+        long otherMax;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherFrames = other.frameCount;
+            otherJanky = other.jankyFrameCount;
+            otherTotal = other.totalNanos;
+            otherMax = other.maxNanos;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += otherCounts[i];
+            }
+            frameCount += otherFrames;
+            jankyFrameCount += otherJanky;
+            totalNanos += otherTotal;
+            maxNanos = Math.max(maxNanos, otherMax);
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        frameCount = 0;
+        jankyFrameCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized long getJankyFrameCount() {
+        return jankyFrameCount;
+    }
+
+    /**
+     * Returns a one line summary, e.g. "120 frames, 3 janky (2.5%), avg 9.1 ms, max 48.0 ms,
+     * [<=8ms: 80, <=16ms: 37, ...]".
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US,
+                "%d frames, %d janky (%.1f%%), avg %.1f ms, max %.1f ms, [",
+                frameCount,
+                jankyFrameCount,
+                frameCount == 0 ? 0 : 100.0 * jankyFrameCount / frameCount,
+                frameCount == 0 ? 0 : totalNanos / 1e6 / frameCount,
+                maxNanos / 1e6));
+
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            if (i < BUCKET_BOUNDS_MS.length) {
+                builder.append("<=").append(BUCKET_BOUNDS_MS[i]).append("ms: ");
+            } else {
+                builder.append(">").append(BUCKET_BOUNDS_MS[i - 1]).append("ms: ");
+            }
+            builder.append(counts[i]);
+        }
+
+        return builder.append(']').toString();
+    }
+}
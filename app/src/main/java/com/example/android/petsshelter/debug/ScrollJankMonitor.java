@@ -0,0 +1,82 @@
+package com.example.android.petsshelter.debug;
+
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.AbsListView;
+
+/**
+ * Records the duration of every frame while a list is scrolling.
+ * <p>
+ * Each scroll gesture (from the list leaving the idle state until it comes back to it) gets its
+ * own histogram which is logged when the scroll ends, and then merged into the histogram of
+ * {@link DebugInstrumentation#getScrollHistogram()}.
+ */
+public class ScrollJankMonitor implements AbsListView.OnScrollListener,
+        Choreographer.FrameCallback {
+
+    private static final String TAG = ScrollJankMonitor.class.getSimpleName();
+
+    private final String listName;
+
+    private final FrameTimeHistogram currentScroll = new FrameTimeHistogram();
+
+    private boolean scrolling = false;
+
+    private long lastFrameTimeNanos = 0;
+
+    /**
+     * @param listName The name of the monitored list, used in the log.
+     */
+    public ScrollJankMonitor(String listName) {
+        this.listName = listName;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState != SCROLL_STATE_IDLE && !scrolling) {
+            scrolling = true;
+            lastFrameTimeNanos = 0;
+            currentScroll.reset();
+            Choreographer.getInstance().postFrameCallback(this);
+        } else if (scrollState == SCROLL_STATE_IDLE && scrolling) {
+            stop();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        // Nothing to do, frames are measured by the Choreographer callback.
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!scrolling) {
+            return;
+        }
+
+        if (lastFrameTimeNanos != 0) {
+            currentScroll.record(frameTimeNanos - lastFrameTimeNanos);
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stop recording, e.g. when the list goes away in the middle of a scroll.
+     */
+    public void stop() {
+        if (!scrolling) {
+            return;
+        }
+
+        scrolling = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+
+        if (currentScroll.getFrameCount() > 0) {
+            Log.i(TAG, listName + " scroll: " + currentScroll);
+            DebugInstrumentation.getScrollHistogram().merge(currentScroll);
+        }
+    }
+}
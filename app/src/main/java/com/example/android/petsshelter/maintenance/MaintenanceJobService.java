@@ -0,0 +1,57 @@
+package com.example.android.petsshelter.maintenance;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.example.android.petsshelter.data.PetContract;
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+
+/**
+ * Runs the database maintenance of {@link com.example.android.petsshelter.data.PetProvider}
+ * when the scheduled job fires, see {@link MaintenanceScheduler}.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    private static final String TAG = MaintenanceJobService.class.getSimpleName();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        // Jobs are started on the main thread, the maintenance runs on its own thread.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Bundle extras = new Bundle();
+                extras.putLong(PetContract.EXTRA_MIN_INTERVAL_MS,
+                        MaintenanceScheduler.MIN_INTERVAL_MS);
+                // The long integrity check only runs while the device is idle.
+                extras.putBoolean(PetContract.EXTRA_CHECK_INTEGRITY,
+                        params.getJobId() == MaintenanceScheduler.JOB_ID_IDLE);
+
+                // Null if the provider could not be reached.
+                Bundle result = getContentResolver().call(PetEntry.CONTENT_URI,
+                        PetContract.METHOD_RUN_MAINTENANCE, null, extras);
+                Log.i(TAG, "onStartJob: maintenance ran -> "
+                        + (result != null && result.getBoolean(PetContract.KEY_MAINTENANCE_RAN)));
+
+                jobFinished(params, false);
+            }
+        }, TAG).start();
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        /* The conditions are no longer met (e.g. the device is in use again). Interrupt the
+         * maintenance and have the job retried, the cancelled run doesn't count as done. */
+        getContentResolver().call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_CANCEL_MAINTENANCE, null, null);
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.petsshelter.maintenance;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the database maintenance to run when the device is idle or charging.
+ * <p>
+ * JobScheduler requires all the constraints of a job to be met, so there's one job for each
+ * condition. Whichever fires first runs the maintenance, the other one then finds a recent run
+ * and skips it. The idle job also checks the integrity of the database, it only skips the run if
+ * the integrity was checked recently.
+ */
+public final class MaintenanceScheduler {
+
+    private static final String TAG = MaintenanceScheduler.class.getSimpleName();
+
+    static final int JOB_ID_IDLE = 1001;
+    private static final int JOB_ID_CHARGING = 1002;
+
+    private static final long PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+
+    // Runs closer than this to the previous one are skipped.
+    static final long MIN_INTERVAL_MS = TimeUnit.HOURS.toMillis(20);
+
+    /**
+     * A utility class cannot be instantiated.
+     */
+    private MaintenanceScheduler() {
+    }
+
+    /**
+     * Schedule the maintenance jobs, unless they are already scheduled. Does nothing before
+     * Android L, where JobScheduler is not available.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Log.i(TAG, "schedule: JobScheduler not available, no maintenance");
+            return;
+        }
+
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        ComponentName service = new ComponentName(context, MaintenanceJobService.class);
+
+        if (!isScheduled(jobScheduler, JOB_ID_IDLE)) {
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_IDLE, service)
+                    .setRequiresDeviceIdle(true)
+                    .setPeriodic(PERIOD_MS)
+                    .setPersisted(false)
+                    .build());
+        }
+
+        if (!isScheduled(jobScheduler, JOB_ID_CHARGING)) {
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_CHARGING, service)
+                    .setRequiresCharging(true)
+                    .setPeriodic(PERIOD_MS)
+                    .setPersisted(false)
+                    .build());
+        }
+    }
+
+    private static boolean isScheduled(JobScheduler jobScheduler, int jobId) {
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == jobId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.petsshelter.ui;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.petsshelter.R;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Work run off the main thread for an activity, then its result shown by the activity.
+ * <p>
+ * The short tasks the user waits for run one after the other on a thread shared by the
+ * activities, the long running ones (the debug tools) on another one, so they never delay the
+ * short ones. The work only gets the application context, and the activity is only weakly
+ * referenced while it runs: subclasses must be static classes so they don't hold the activity
+ * either. The result, or the failure of the work, is delivered on the main thread, unless the
+ * activity was finished or destroyed meanwhile.
+ *
+ * @param <A> The activity that shows the result.
+ * @param <T> The result of the work.
+ */
+abstract class BackgroundTask<A extends Activity, T> {
+
+    private static final String TAG = BackgroundTask.class.getSimpleName();
+
+    private static final ExecutorService EXECUTOR = newExecutor("ui-background");
+
+    private static final ExecutorService LONG_RUNNING_EXECUTOR = newExecutor("ui-long-running");
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final boolean longRunning;
+
+    /**
+     * A short task, e.g. a lookup before saving.
+     */
+    BackgroundTask() {
+        this(false);
+    }
+
+    /**
+     * A task that runs for seconds or minutes if long running, which then doesn't hold the
+     * short tasks back.
+     */
+    BackgroundTask(boolean longRunning) {
+        this.longRunning = longRunning;
+    }
+
+    /**
+     * Do the work, on the background thread.
+     */
+    protected abstract T doInBackground(Context context);
+
+    /**
+     * Show the result of the work, on the main thread, in a live activity.
+     */
+    protected abstract void onResult(A activity, T result);
+
+    /**
+     * Show that the work failed, on the main thread, in a live activity. Shows a generic error
+     * by default.
+     */
+    protected void onFailure(A activity, RuntimeException e) {
+        Toast.makeText(
+                activity,
+                R.string.background_task_failed,
+                Toast.LENGTH_SHORT
+        ).show();
+    }
+
+    /**
+     * Queue the task for the given activity.
+     */
+    final void execute(A activity) {
+        final Context context = activity.getApplicationContext();
+        final WeakReference<A> activityRef = new WeakReference<>(activity);
+
+        (longRunning ? LONG_RUNNING_EXECUTOR : EXECUTOR).execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                RuntimeException failure = null;
+                try {
+                    result = doInBackground(context);
+                } catch (RuntimeException e) {
+                    // Thrown out of run(), it would kill the worker thread and the app.
+                    Log.e(TAG, "execute: " + getClass().getSimpleName() + " failed", e);
+                    failure = e;
+                }
+                deliver(activityRef, result, failure);
+            }
+        });
+    }
+
+    private void deliver(final WeakReference<A> activityRef, final T result,
+                         final RuntimeException failure) {
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                A activity = activityRef.get();
+                if (!isAlive(activity)) {
+                    return;
+                }
+                if (failure != null) {
+                    onFailure(activity, failure);
+                } else {
+                    onResult(activity, result);
+                }
+            }
+        });
+    }
+
+    private static ExecutorService newExecutor(final String threadName) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, threadName);
+            }
+        });
+    }
+
+    private static boolean isAlive(Activity activity) {
+        if (activity == null || activity.isFinishing()) {
+            return false;
+        }
+        // Activity#isDestroyed() was added in API 17.
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1
+                || !activity.isDestroyed();
+    }
+}
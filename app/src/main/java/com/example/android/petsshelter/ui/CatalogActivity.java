@@ -2,16 +2,22 @@ package com.example.android.petsshelter.ui;
 
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.InputType;
 import android.util.Log;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Toast;
 
@@ -23,9 +29,17 @@ import androidx.loader.app.LoaderManager;
 import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 
+import com.example.android.petsshelter.BuildConfig;
 import com.example.android.petsshelter.R;
 import com.example.android.petsshelter.adapters.PetCursorAdapter;
+import com.example.android.petsshelter.benchmark.ColumnarSnapshotBenchmark;
+import com.example.android.petsshelter.benchmark.DbProfileBenchmark;
+import com.example.android.petsshelter.data.ActiveShelter;
+import com.example.android.petsshelter.data.PetContract;
 import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.data.PetDataGenerator;
+import com.example.android.petsshelter.data.PetWriter;
+import com.example.android.petsshelter.debug.ScrollJankMonitor;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 /**
@@ -38,11 +52,22 @@ public class CatalogActivity extends AppCompatActivity implements
     private static final String TAG = CatalogActivity.class.getSimpleName();
 
     private static final int PET_LOADER_ID = 1;
+    private static final int SECTIONS_LOADER_ID = 2;
+
+    // Min time between two reloads of the list, so bursts of writes are shown in a few steps.
+    private static final long PET_LOADER_UPDATE_THROTTLE_MS = 500;
+
+    // Size and seed of the dataset generated from the debug menu.
+    private static final int TEST_DATA_PET_COUNT = 10000;
+    private static final long TEST_DATA_SEED = 42;
 
     private ListView petsLV;
 
     private PetCursorAdapter petCursorAdapter;
 
+    // Records frame times while the list scrolls, only set in debug builds.
+    private ScrollJankMonitor scrollJankMonitor;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -74,21 +99,37 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        petsLV.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
-            @Override
-            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-                // TODO: show a popup menu to remove the long-clicked item.
-                return true;
-            }
-        });
+        // A long click starts selecting pets, to edit or delete them together.
+        petsLV.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        petsLV.setMultiChoiceModeListener(new PetSelectionListener());
 
         petCursorAdapter = new PetCursorAdapter(this, null);
         petsLV.setAdapter(petCursorAdapter);
+        // Sections by first letter, see PetCursorAdapter.
+        petsLV.setFastScrollEnabled(true);
 
         View emptyView = findViewById(R.id.empty_view);
         petsLV.setEmptyView(emptyView);
 
+        if (BuildConfig.DEBUG) {
+            scrollJankMonitor = new ScrollJankMonitor(TAG);
+            petsLV.setOnScrollListener(scrollJankMonitor);
+        }
+
+        updateShelterSubtitle();
+
         getSupportLoaderManager().initLoader(PET_LOADER_ID, null, this);
+        getSupportLoaderManager().initLoader(SECTIONS_LOADER_ID, null, this);
+    }
+
+    /**
+     * Show the active shelter under the title.
+     */
+    private void updateShelterSubtitle() {
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(getString(
+                    R.string.catalog_shelter_subtitle, ActiveShelter.getId(this)));
+        }
     }
 
     @Override
@@ -96,34 +137,59 @@ public class CatalogActivity extends AppCompatActivity implements
         super.onStart();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if (scrollJankMonitor != null) {
+            scrollJankMonitor.stop();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Debug tools are only available in debug builds.
+        menu.findItem(R.id.action_generate_test_data).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_benchmark_snapshot).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_benchmark_db_profiles).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_query_cache_stats).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
-        if (id == R.id.action_insert_dummy_data) {
+        if (id == R.id.action_switch_shelter) {
+            showSwitchShelterDialog();
+            return true;
+        } else if (id == R.id.action_insert_dummy_data) {
             insertDummyPetData();
             return true;
         } else if (id == R.id.action_delete_all_entries) {
             showDeletePetsConfirmationDialog();
             return true;
+        } else if (id == R.id.action_generate_test_data) {
+            generateTestData();
+            return true;
+        } else if (id == R.id.action_benchmark_snapshot) {
+            runSnapshotBenchmark();
+            return true;
+        } else if (id == R.id.action_benchmark_db_profiles) {
+            runDbProfileBenchmark();
+            return true;
+        } else if (id == R.id.action_query_cache_stats) {
+            showQueryCacheStats();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     private void insertDummyPetData() {
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COL_PET_NAME, "Some Pet");
-        values.put(PetEntry.COL_PET_BREED, "Some Breed");
-        values.put(PetEntry.COL_PET_GENDER, PetEntry.GENDER_UNKNOWN);
-        values.put(PetEntry.COL_PET_WEIGHT, 0);
-
-        Uri insertionUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-        if (insertionUri == null) {
+        long newPetId = PetWriter.getInstance(this).insert(ActiveShelter.getId(this),
+                "Some Pet", "Some Breed", PetEntry.GENDER_UNKNOWN, 0);
+        if (newPetId == -1) {
             Toast.makeText(
                     this,
                     getString(R.string.pet_not_saved),
@@ -138,6 +204,95 @@ public class CatalogActivity extends AppCompatActivity implements
         }
     }
 
+    /**
+     * Generate a reproducible set of synthetic pets off the main thread.
+     */
+    private void generateTestData() {
+        new GenerateTestDataTask(ActiveShelter.getUri(this)).execute(this);
+    }
+
+    /**
+     * Run the columnar snapshot benchmark off the main thread and show its summary.
+     */
+    private void runSnapshotBenchmark() {
+        new SnapshotBenchmarkTask().execute(this);
+    }
+
+    /**
+     * Run the workloads under each database profile off the main thread and show the report,
+     * too long for a toast.
+     */
+    private void runDbProfileBenchmark() {
+        new DbProfileBenchmarkTask().execute(this);
+    }
+
+    /**
+     * Show the hit rate and the memory use of the query cache of the provider.
+     */
+    private void showQueryCacheStats() {
+        new QueryCacheStatsTask().execute(this);
+    }
+
+    /**
+     * Ask for the ID of the shelter to show, and switch the catalog to it.
+     */
+    private void showSwitchShelterDialog() {
+        final EditText shelterIdET = new EditText(this);
+        shelterIdET.setInputType(InputType.TYPE_CLASS_NUMBER);
+        shelterIdET.setHint(R.string.hint_shelter_id);
+        shelterIdET.setText(String.valueOf(ActiveShelter.getId(this)));
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_switch_shelter);
+        builder.setView(shelterIdET);
+        builder.setPositiveButton(
+                R.string.confirm,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        switchShelter(shelterIdET.getText().toString().trim());
+                    }
+                });
+        builder.setNegativeButton(
+                R.string.cancel,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (dialog != null) {
+                            dialog.dismiss();
+                        }
+                    }
+                });
+
+        builder.show();
+    }
+
+    private void switchShelter(String shelterIdStr) {
+        long shelterId = 0;
+        try {
+            shelterId = Long.parseLong(shelterIdStr);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "switchShelter: not a shelter ID " + shelterIdStr);
+        }
+
+        if (shelterId <= 0) {
+            Toast.makeText(
+                    this,
+                    R.string.invalid_shelter_id,
+                    Toast.LENGTH_SHORT
+            ).show();
+            return;
+        }
+
+        ActiveShelter.setId(this, shelterId);
+        updateShelterSubtitle();
+
+        /* Reload the list from the new shelter. Restarting cancels the loads of the previous
+         * shelter still in progress, see onCreateLoader(). */
+        getSupportLoaderManager().restartLoader(PET_LOADER_ID, null, this);
+        getSupportLoaderManager().restartLoader(SECTIONS_LOADER_ID, null, this);
+    }
+
     private void showDeletePetsConfirmationDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setMessage(R.string.delete_all_pets_dialog_msg);
@@ -165,8 +320,9 @@ public class CatalogActivity extends AppCompatActivity implements
     }
 
     private void deleteAllPets() {
+        // Only the pets of the active shelter are deleted.
         int rowsDeleted = getContentResolver().delete(
-                PetEntry.CONTENT_URI, null, null);
+                ActiveShelter.getUri(this), null, null);
 
         Toast.makeText(
                 this,
@@ -175,32 +331,364 @@ public class CatalogActivity extends AppCompatActivity implements
         ).show();
     }
 
+    /**
+     * Edits or deletes the pets selected in the list, each action in a single call to the
+     * provider.
+     */
+    private class PetSelectionListener implements AbsListView.MultiChoiceModeListener {
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
+                                              boolean checked) {
+            mode.setTitle(getString(R.string.pets_selected, petsLV.getCheckedItemCount()));
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = petsLV.getCheckedItemIds();
+            switch (item.getItemId()) {
+                case R.id.action_change_gender:
+                    showChangeGenderDialog(mode, ids);
+                    return true;
+
+                case R.id.action_change_breed:
+                    showChangeBreedDialog(mode, ids);
+                    return true;
+
+                case R.id.action_delete_selected:
+                    showDeleteSelectedPetsDialog(mode, ids);
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+        }
+    }
+
+    private void showChangeGenderDialog(final ActionMode mode, final long[] ids) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_change_gender);
+        // The options are in the order of the gender constants.
+        builder.setItems(
+                R.array.array_gender_options,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        ContentValues values = new ContentValues();
+                        values.put(PetEntry.COL_PET_GENDER, which);
+                        updateSelectedPets(mode, ids, values);
+                    }
+                });
+        builder.setNegativeButton(
+                R.string.cancel,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (dialog != null) {
+                            dialog.dismiss();
+                        }
+                    }
+                });
+
+        builder.show();
+    }
+
+    private void showChangeBreedDialog(final ActionMode mode, final long[] ids) {
+        final EditText breedET = new EditText(this);
+        breedET.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_CAP_WORDS);
+        breedET.setHint(R.string.hint_pet_breed);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_change_breed);
+        builder.setView(breedET);
+        builder.setPositiveButton(
+                R.string.confirm,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // An empty breed clears it, like in the editor.
+                        String breed = breedET.getText().toString().trim();
+                        ContentValues values = new ContentValues();
+                        values.put(PetEntry.COL_PET_BREED, breed.isEmpty() ? null : breed);
+                        updateSelectedPets(mode, ids, values);
+                    }
+                });
+        builder.setNegativeButton(
+                R.string.cancel,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (dialog != null) {
+                            dialog.dismiss();
+                        }
+                    }
+                });
+
+        builder.show();
+    }
+
+    private void showDeleteSelectedPetsDialog(final ActionMode mode, final long[] ids) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.delete_selected_pets_dialog_msg, ids.length));
+        builder.setPositiveButton(
+                R.string.delete,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        deleteSelectedPets(mode, ids);
+                    }
+                });
+        builder.setNegativeButton(
+                R.string.cancel,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (dialog != null) {
+                            dialog.dismiss();
+                        }
+                    }
+                });
+
+        builder.show();
+    }
+
+    /**
+     * Update the selected pets with the given values off the main thread, the selection is over
+     * right away.
+     */
+    private void updateSelectedPets(ActionMode mode, long[] ids, ContentValues values) {
+        new BulkWriteTask(ids, values).execute(this);
+        mode.finish();
+    }
+
+    /**
+     * Delete the selected pets off the main thread, the selection is over right away.
+     */
+    private void deleteSelectedPets(ActionMode mode, long[] ids) {
+        new BulkWriteTask(ids, null).execute(this);
+        mode.finish();
+    }
+
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-        Log.i(TAG, "onCreateLoader: creating the loader");
+        Log.i(TAG, "onCreateLoader: creating the loader " + id);
 
-        String[] projection = {PetEntry.COL_ID, PetEntry.COL_PET_NAME, PetEntry.COL_PET_BREED};
-        return new CursorLoader(
-                this,
-                PetEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null
-        );
+        /* A CursorLoader queries with a cancellation signal, which it cancels when the load is
+         * no longer needed: the loader is restarted, stopped with the activity or reset. The
+         * provider interrupts the query in SQLite then. */
+        CursorLoader loader;
+        if (id == SECTIONS_LOADER_ID) {
+            /* The sections are kept by the loader until the provider notifies a change, then
+             * they are queried again along with the list. */
+            loader = new CursorLoader(
+                    this,
+                    PetEntry.buildShelterSectionsUri(ActiveShelter.getId(this)),
+                    null,
+                    null,
+                    null,
+                    null
+            );
+        } else {
+            /* Sorted by name, for the fast scroll sections. The last vaccination comes with the
+             * pets, instead of a records query per list item. */
+            String[] projection = {
+                    PetEntry.COL_ID,
+                    PetEntry.COL_PET_NAME,
+                    PetEntry.COL_PET_BREED,
+                    PetEntry.COL_LAST_VACCINATION
+            };
+            loader = new CursorLoader(
+                    this,
+                    ActiveShelter.getUri(this),
+                    projection,
+                    null,
+                    null,
+                    PetEntry.SORT_BY_NAME
+            );
+        }
+        loader.setUpdateThrottle(PET_LOADER_UPDATE_THROTTLE_MS);
+        return loader;
     }
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        Log.i(TAG, "onLoadFinished: loading finished");
+        Log.i(TAG, "onLoadFinished: loading finished " + loader.getId());
 
-        petCursorAdapter.swapCursor(data);
+        if (loader.getId() == SECTIONS_LOADER_ID) {
+            petCursorAdapter.setSections(data);
+        } else {
+            petCursorAdapter.swapCursor(data);
+        }
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
         // Callback called when the data becomes invalid.
-        petCursorAdapter.swapCursor(null);
+        if (loader.getId() == SECTIONS_LOADER_ID) {
+            petCursorAdapter.setSections(null);
+        } else {
+            petCursorAdapter.swapCursor(null);
+        }
+    }
+
+    /**
+     * Updates the pets with the given IDs with the given values, or deletes them if the values
+     * are null, in a single provider call. Shows the number of changed pets.
+     */
+    private static final class BulkWriteTask extends BackgroundTask<CatalogActivity, Integer> {
+
+        private final long[] ids;
+        private final ContentValues values;
+
+        BulkWriteTask(long[] ids, ContentValues values) {
+            this.ids = ids;
+            this.values = values;
+        }
+
+        @Override
+        protected Integer doInBackground(Context context) {
+            Bundle extras = new Bundle();
+            extras.putLongArray(PetContract.EXTRA_IDS, ids);
+            String method = PetContract.METHOD_BULK_DELETE;
+            if (values != null) {
+                extras.putParcelable(PetContract.EXTRA_VALUES, values);
+                method = PetContract.METHOD_BULK_UPDATE;
+            }
+
+            Bundle result = context.getContentResolver().call(
+                    PetEntry.CONTENT_URI, method, null, extras);
+            return result == null ? 0 : result.getInt(PetContract.KEY_ROW_COUNT);
+        }
+
+        @Override
+        protected void onResult(CatalogActivity activity, Integer rowCount) {
+            Toast.makeText(
+                    activity,
+                    values == null
+                            ? rowCount + " pets deleted"
+                            : activity.getString(R.string.pets_updated, rowCount),
+                    Toast.LENGTH_SHORT
+            ).show();
+        }
+    }
+
+    /* The debug tools, run by BackgroundTask: static classes, they don't hold the activity. */
+
+    private static final class GenerateTestDataTask
+            extends BackgroundTask<CatalogActivity, String> {
+
+        private final Uri shelterUri;
+
+        GenerateTestDataTask(Uri shelterUri) {
+            super(true);
+            this.shelterUri = shelterUri;
+        }
+
+        @Override
+        protected String doInBackground(Context context) {
+            long start = SystemClock.elapsedRealtime();
+            int inserted = new PetDataGenerator(TEST_DATA_SEED).insert(
+                    context.getContentResolver(), shelterUri, TEST_DATA_PET_COUNT);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            return context.getString(R.string.test_data_generated, inserted, elapsed);
+        }
+
+        @Override
+        protected void onResult(CatalogActivity activity, String message) {
+            Toast.makeText(
+                    activity,
+                    message,
+                    Toast.LENGTH_SHORT
+            ).show();
+        }
+    }
+
+    private static final class SnapshotBenchmarkTask
+            extends BackgroundTask<CatalogActivity, String> {
+
+        SnapshotBenchmarkTask() {
+            super(true);
+        }
+
+        @Override
+        protected String doInBackground(Context context) {
+            return ColumnarSnapshotBenchmark.run(context);
+        }
+
+        @Override
+        protected void onResult(CatalogActivity activity, String summary) {
+            Toast.makeText(
+                    activity,
+                    summary,
+                    Toast.LENGTH_LONG
+            ).show();
+        }
+    }
+
+    private static final class DbProfileBenchmarkTask
+            extends BackgroundTask<CatalogActivity, String> {
+
+        DbProfileBenchmarkTask() {
+            super(true);
+        }
+
+        @Override
+        protected String doInBackground(Context context) {
+            return DbProfileBenchmark.run(context);
+        }
+
+        @Override
+        protected void onResult(CatalogActivity activity, String report) {
+            AlertDialog.Builder builder = new AlertDialog.Builder(activity);
+            builder.setTitle(R.string.action_benchmark_db_profiles);
+            builder.setMessage(report);
+            builder.setPositiveButton(R.string.confirm, null);
+            builder.show();
+        }
+    }
+
+    private static final class QueryCacheStatsTask
+            extends BackgroundTask<CatalogActivity, String> {
+
+        @Override
+        protected String doInBackground(Context context) {
+            Bundle stats = context.getContentResolver().call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_QUERY_CACHE_STATS, null, null);
+            if (stats == null) {
+                // The provider could not be reached.
+                return context.getString(R.string.query_cache_stats_unavailable);
+            }
+            long hits = stats.getLong(PetContract.KEY_CACHE_HITS);
+            long queries = hits + stats.getLong(PetContract.KEY_CACHE_MISSES);
+            return context.getString(R.string.query_cache_stats,
+                    queries == 0 ? 0 : (int) (hits * 100 / queries),
+                    hits, queries,
+                    stats.getLong(PetContract.KEY_CACHE_EVICTIONS),
+                    stats.getInt(PetContract.KEY_CACHE_SIZE_BYTES) / 1024,
+                    stats.getInt(PetContract.KEY_CACHE_MAX_BYTES) / 1024);
+        }
+
+        @Override
+        protected void onResult(CatalogActivity activity, String message) {
+            Toast.makeText(
+                    activity,
+                    message,
+                    Toast.LENGTH_LONG
+            ).show();
+        }
     }
 }
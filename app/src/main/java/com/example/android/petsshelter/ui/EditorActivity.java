@@ -2,9 +2,10 @@ package com.example.android.petsshelter.ui;
 
 import static com.example.android.petsshelter.data.PetContract.PetEntry;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -19,26 +20,32 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.NavUtils;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
-import androidx.loader.content.Loader;
 
 import com.example.android.petsshelter.R;
+import com.example.android.petsshelter.data.ActiveShelter;
+import com.example.android.petsshelter.data.Pet;
+import com.example.android.petsshelter.data.PetContract;
+import com.example.android.petsshelter.data.PetRepository;
+import com.example.android.petsshelter.data.PetWriter;
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class EditorActivity extends AppCompatActivity {
 
     private static final String TAG = EditorActivity.class.getSimpleName();
 
-    private static final int PET_LOADER_ID = 1;
+    // Columns shown by the editor.
+    private static final String[] PET_PROJECTION = {
+            PetEntry.COL_ID,
+            PetEntry.COL_PET_NAME,
+            PetEntry.COL_PET_BREED,
+            PetEntry.COL_PET_GENDER,
+            PetEntry.COL_PET_WEIGHT
+    };
 
     /**
      * EditText field to enter the pet's name
@@ -68,8 +75,14 @@ public class EditorActivity extends AppCompatActivity implements
 
     private Uri petToEditUri;
 
+    // Delivers the edited pet, only set in edit mode.
+    private PetRepository.Subscription petSubscription;
+
     private boolean petHasChanged = false;
 
+    // Set while the likely duplicates of a new pet are looked up, before it is saved.
+    private boolean checkingDuplicates = false;
+
     private View.OnTouchListener onTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View v, MotionEvent event) {
@@ -102,7 +115,16 @@ public class EditorActivity extends AppCompatActivity implements
         // Check if the activity was started to edit a pet (edit mode).
         if (petToEditUri != null) {
             setTitle(getString(R.string.editor_activity_title_edit_pet));
-            getSupportLoaderManager().initLoader(PET_LOADER_ID, null, this);
+            petSubscription = PetRepository.getInstance(this).observePet(
+                    petToEditUri,
+                    PET_PROJECTION,
+                    new PetRepository.Observer<Pet>() {
+                        @Override
+                        public void onChanged(Pet pet) {
+                            Log.i(TAG, "onChanged: pet loaded -> " + (pet != null));
+                            updateUI(pet);
+                        }
+                    });
         } else {
             setTitle(getString(R.string.editor_activity_title_new_pet));
             invalidateOptionsMenu();
@@ -159,10 +181,13 @@ public class EditorActivity extends AppCompatActivity implements
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
 
-        // Hide delete menu item when adding a new pet.
+        // Hide delete and adoption menu items when adding a new pet.
         if (petToEditUri == null) {
             MenuItem deleteItm = menu.findItem(R.id.action_delete);
             deleteItm.setVisible(false);
+
+            MenuItem adoptedItm = menu.findItem(R.id.action_mark_adopted);
+            adoptedItm.setVisible(false);
         }
 
         return true;
@@ -177,6 +202,9 @@ public class EditorActivity extends AppCompatActivity implements
         } else if (id == R.id.action_delete) {
             showDeleteConfirmationDialog();
             return true;
+        } else if (id == R.id.action_mark_adopted) {
+            markPetAdopted();
+            return true;
         } else if (id == android.R.id.home) {
             handleHomeButton();
             return true;
@@ -185,24 +213,18 @@ public class EditorActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
-    private void updateUI(Cursor data) {
+    private void updateUI(Pet pet) {
         String petName = "";
         String petBreed = "";
         int petWeight = 0;
         petGender = 0;
 
         /* Edit mode, fill the clicked pet's info into the text fields. */
-        if (data != null) {
-            if (data.moveToNext()) {
-                petName = data.getString(
-                        data.getColumnIndex(PetEntry.COL_PET_NAME));
-                petBreed = data.getString(
-                        data.getColumnIndex(PetEntry.COL_PET_BREED));
-                petWeight = data.getInt(
-                        data.getColumnIndex(PetEntry.COL_PET_WEIGHT));
-                petGender = data.getInt(
-                        data.getColumnIndex(PetEntry.COL_PET_GENDER));
-            }
+        if (pet != null) {
+            petName = pet.getName();
+            petBreed = pet.getBreed();
+            petWeight = pet.getWeight();
+            petGender = pet.getGender();
         }
 
         petNameET.setText(petName);
@@ -240,18 +262,14 @@ public class EditorActivity extends AppCompatActivity implements
             weight = Integer.parseInt(weightStr);
         }
 
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COL_PET_NAME, name);
-        values.put(PetEntry.COL_PET_BREED, breed);
-        values.put(PetEntry.COL_PET_GENDER, petGender);
-        values.put(PetEntry.COL_PET_WEIGHT, weight);
+        PetWriter petWriter = PetWriter.getInstance(this);
 
         /* Edit mode */
         if (petToEditUri != null) {
-            int rowsUpdated = getContentResolver().update(
-                    petToEditUri, values, null, null);
+            boolean updated = petWriter.update(
+                    ContentUris.parseId(petToEditUri), name, breed, petGender, weight);
 
-            if (rowsUpdated > 0) {
+            if (updated) {
                 Toast.makeText(
                         this,
                         getString(R.string.pet_updated),
@@ -267,23 +285,108 @@ public class EditorActivity extends AppCompatActivity implements
                 ).show();
             }
             /* Insert mode */
+        } else if (!checkingDuplicates) {
+            // The same animal is often registered twice, ask first if it looks like it.
+            checkingDuplicates = true;
+            new LikelyDuplicatesTask(name, breed, petGender, weight).execute(this);
+        }
+    }
+
+    /**
+     * Save the new pet, or ask first if it has likely duplicates.
+     */
+    private void onLikelyDuplicatesCounted(int duplicateCount, String name, String breed,
+                                           int gender, int weight) {
+        checkingDuplicates = false;
+        if (duplicateCount > 0) {
+            showLikelyDuplicateDialog(duplicateCount, name, breed, gender, weight);
         } else {
-            Uri newRowUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-            if (newRowUri != null) {
-                Toast.makeText(
-                        this,
-                        getString(R.string.pet_saved),
-                        Toast.LENGTH_SHORT
-                ).show();
+            insertPet(name, breed, gender, weight);
+        }
+    }
 
-                this.finish();
-            } else {
-                Toast.makeText(
-                        this,
-                        getString(R.string.pet_not_saved),
-                        Toast.LENGTH_SHORT
-                ).show();
-            }
+    /**
+     * The check failed, the pet is not saved and Save can be pressed again.
+     */
+    private void onLikelyDuplicatesFailed() {
+        checkingDuplicates = false;
+        Toast.makeText(
+                this,
+                getString(R.string.pet_not_saved),
+                Toast.LENGTH_SHORT
+        ).show();
+    }
+
+    private void insertPet(String name, String breed, int gender, int weight) {
+        // New pets join the active shelter.
+        long newPetId = PetWriter.getInstance(this).insert(
+                ActiveShelter.getId(this), name, breed, gender, weight);
+        if (newPetId != -1) {
+            Toast.makeText(
+                    this,
+                    getString(R.string.pet_saved),
+                    Toast.LENGTH_SHORT
+            ).show();
+
+            this.finish();
+        } else {
+            Toast.makeText(
+                    this,
+                    getString(R.string.pet_not_saved),
+                    Toast.LENGTH_SHORT
+            ).show();
+        }
+    }
+
+    private void showLikelyDuplicateDialog(int duplicateCount, final String name,
+                                           final String breed, final int gender,
+                                           final int weight) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.likely_duplicate_dialog_msg, duplicateCount));
+        builder.setPositiveButton(
+                R.string.save_anyway,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        insertPet(name, breed, gender, weight);
+                    }
+                });
+        builder.setNegativeButton(
+                R.string.cancel,
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (dialog != null) {
+                            dialog.dismiss();
+                        }
+                    }
+                });
+
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Mark the edited pet as adopted, it will be moved to the archive in the background.
+     */
+    private void markPetAdopted() {
+        boolean updated = PetWriter.getInstance(this).setStatus(
+                ContentUris.parseId(petToEditUri), PetEntry.STATUS_ADOPTED);
+
+        if (updated) {
+            Toast.makeText(
+                    this,
+                    R.string.pet_adopted,
+                    Toast.LENGTH_SHORT
+            ).show();
+
+            this.finish();
+        } else {
+            Toast.makeText(
+                    this,
+                    R.string.error_updating_pet,
+                    Toast.LENGTH_SHORT
+            ).show();
         }
     }
 
@@ -395,34 +498,66 @@ public class EditorActivity extends AppCompatActivity implements
         showUnsavedChangesDialog(discardButtonClickListener);
     }
 
-    @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-        String[] projection = {
-                PetEntry.COL_ID,
-                PetEntry.COL_PET_NAME,
-                PetEntry.COL_PET_BREED,
-                PetEntry.COL_PET_GENDER,
-                PetEntry.COL_PET_WEIGHT
-        };
-
-        return new CursorLoader(
-                this,
-                petToEditUri,
-                projection,
-                null,
-                null,
-                null);
-    }
+    protected void onDestroy() {
+        super.onDestroy();
 
-    @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        Log.i(TAG, "onLoadFinished: cursor -> " + data.getColumnCount());
-        updateUI(data);
+        if (petSubscription != null) {
+            if (isFinishing()) {
+                // Leaving the editor, a load of the pet in progress is not needed anymore.
+                petSubscription.cancel();
+            } else {
+                // Kept alive for the activity recreated by the configuration change.
+                petSubscription.unsubscribe();
+            }
+        }
     }
 
-    @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        updateUI(null);
+    /**
+     * Counts the registered pets that are likely the same animal as a new pet, see
+     * {@link PetContract#METHOD_FIND_DUPLICATES}.
+     */
+    private static final class LikelyDuplicatesTask
+            extends BackgroundTask<EditorActivity, Integer> {
+
+        private final String name;
+        private final String breed;
+        private final int gender;
+        private final int weight;
+
+        LikelyDuplicatesTask(String name, String breed, int gender, int weight) {
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+        }
+
+        @Override
+        protected Integer doInBackground(Context context) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COL_PET_NAME, name);
+            values.put(PetEntry.COL_PET_BREED, breed);
+            values.put(PetEntry.COL_PET_GENDER, gender);
+            values.put(PetEntry.COL_PET_WEIGHT, weight);
+
+            Bundle extras = new Bundle();
+            extras.putParcelable(PetContract.EXTRA_VALUES, values);
+
+            Bundle result = context.getContentResolver().call(
+                    PetEntry.CONTENT_URI, PetContract.METHOD_FIND_DUPLICATES, null, extras);
+            long[] ids = result == null
+                    ? null : result.getLongArray(PetContract.KEY_DUPLICATE_IDS);
+            return ids == null ? 0 : ids.length;
+        }
+
+        @Override
+        protected void onResult(EditorActivity activity, Integer duplicateCount) {
+            activity.onLikelyDuplicatesCounted(duplicateCount, name, breed, gender, weight);
+        }
+
+        @Override
+        protected void onFailure(EditorActivity activity, RuntimeException e) {
+            activity.onLikelyDuplicatesFailed();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,388 @@
+package com.example.android.petsshelter.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.petsshelter.data.PetContract.BreedEntry;
+import com.example.android.petsshelter.data.PetContract.EventEntry;
+import com.example.android.petsshelter.data.PetContract.PetEntry;
+import com.example.android.petsshelter.data.PetContract.RecordEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with {@code EXPLAIN QUERY PLAN} that every query shape issued by {@link PetProvider}
+ * and its callers uses its expected index, on a populated database created by
+ * {@link PetDbHelper}.
+ * <p>
+ * The queries are built from the same selections, projections and sort orders as the provider,
+ * so a change to one of them is checked here. When adding a query shape to the provider, add
+ * its test so that a silent fall back to a full table scan fails the build.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class QueryPlanTest {
+
+    // The plan of a lookup/range on the rowid alias column (_id).
+    private static final String PLAN_PRIMARY_KEY = "INTEGER PRIMARY KEY";
+
+    // The plan of a query that only visits the index range of a single shelter.
+    private static final String PLAN_SHELTER_RANGE = "(" + PetEntry.COL_SHELTER_ID + "=?)";
+
+    // The plan of a query whose result is sorted (or grouped) after it is read.
+    private static final String PLAN_TEMP_SORT = "TEMP B-TREE";
+
+    // The plan step of a full scan, of a table or of a subquery.
+    private static final String PLAN_SCAN = "SCAN ";
+
+    private static final int SHELTER_COUNT = 5;
+    private static final int BREED_COUNT = 40;
+    private static final int PET_COUNT = 2000;
+    private static final int DAY_COUNT = 365;
+
+    // The columns of the catalog list, see CatalogActivity.
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry.COL_ID,
+            PetEntry.COL_PET_NAME,
+            PetEntry.COL_PET_BREED,
+            PetEntry.COL_LAST_VACCINATION
+    };
+
+    // The statistics of the benchmarks, see ColumnarSnapshotBenchmark and DbProfileBenchmark.
+    private static final String[] STATISTICS_PROJECTION = {
+            "COUNT(*)",
+            "AVG(" + PetEntry.COL_PET_WEIGHT + ")"
+    };
+
+    private static final String SELECTION_BY_GENDER = PetEntry.COL_PET_GENDER + "=?";
+
+    private PetDbHelper petDbHelper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        petDbHelper = new PetDbHelper(RuntimeEnvironment.getApplication());
+        db = petDbHelper.getWritableDatabase();
+        populate();
+    }
+
+    @After
+    public void tearDown() {
+        petDbHelper.close();
+    }
+
+    /**
+     * Fill every table with generated rows, then refresh the statistics of the query planner
+     * like the maintenance job does.
+     */
+    private void populate() {
+        Random random = new Random(42);
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insertBreed = db.compileStatement("INSERT INTO " +
+                    BreedEntry.TABLE_NAME + "(" + BreedEntry.COL_BREED_NAME + ") VALUES (?)");
+            for (int i = 0; i < BREED_COUNT; i++) {
+                insertBreed.bindString(1, "Breed " + i);
+                insertBreed.executeInsert();
+            }
+
+            SQLiteStatement insertPet = db.compileStatement("INSERT INTO " +
+                    PetEntry.TABLE_NAME + "(" +
+                    PetEntry.COL_PET_NAME + ", " +
+                    PetEntry.COL_BREED_ID + ", " +
+                    PetEntry.COL_PET_GENDER + ", " +
+                    PetEntry.COL_PET_WEIGHT + ", " +
+                    PetEntry.COL_PET_STATUS + ", " +
+                    PetEntry.COL_SHELTER_ID + ", " +
+                    PetEntry.COL_FINGERPRINT + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement insertRecord = db.compileStatement("INSERT INTO " +
+                    RecordEntry.TABLE_NAME + "(" +
+                    RecordEntry.COL_PET_ID + ", " +
+                    RecordEntry.COL_DATE + ", " +
+                    RecordEntry.COL_TYPE + ") VALUES (?, ?, ?)");
+            SQLiteStatement insertEvent = db.compileStatement("INSERT INTO " +
+                    EventEntry.TABLE_NAME + "(" +
+                    EventEntry.COL_PET_ID + ", " +
+                    EventEntry.COL_TIMESTAMP + ", " +
+                    EventEntry.COL_TYPE + ", " +
+                    EventEntry.COL_VALUE + ") VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < PET_COUNT; i++) {
+                insertPet.bindString(1, (char) ('A' + random.nextInt(26)) + "pet " + i);
+                insertPet.bindLong(2, 1 + random.nextInt(BREED_COUNT));
+                insertPet.bindLong(3, random.nextInt(3));
+                insertPet.bindLong(4, 1 + random.nextInt(60));
+                insertPet.bindLong(5, random.nextInt(20) == 0
+                        ? PetEntry.STATUS_ADOPTED : PetEntry.STATUS_AVAILABLE);
+                insertPet.bindLong(6, 1 + random.nextInt(SHELTER_COUNT));
+                // A few pets share their fingerprint.
+                insertPet.bindLong(7, random.nextInt(PET_COUNT * 5 / 4));
+                long petId = insertPet.executeInsert();
+
+                for (int j = 0; j < 2; j++) {
+                    insertRecord.bindLong(1, petId);
+                    insertRecord.bindLong(2, random.nextInt(DAY_COUNT) * 86400000L);
+                    insertRecord.bindLong(3, random.nextInt(3));
+                    insertRecord.executeInsert();
+                }
+                for (int j = 0; j < 3; j++) {
+                    insertEvent.bindLong(1, petId);
+                    insertEvent.bindLong(2, random.nextInt(DAY_COUNT) * 86400000L);
+                    insertEvent.bindLong(3, random.nextInt(4));
+                    insertEvent.bindLong(4, random.nextInt(60));
+                    insertEvent.executeInsert();
+                }
+            }
+
+            for (int day = 0; day < DAY_COUNT; day++) {
+                insertRollup(EventEntry.DAILY_TABLE_NAME, day);
+            }
+            for (int month = 0; month < DAY_COUNT / 30; month++) {
+                insertRollup(EventEntry.MONTHLY_TABLE_NAME, month);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        db.execSQL("ANALYZE");
+    }
+
+    private void insertRollup(String table, long bucket) {
+        for (int type = 0; type < 4; type++) {
+            db.execSQL("INSERT INTO " + table + " VALUES (?, ?, 1, 1)",
+                    new Object[]{bucket, type});
+        }
+    }
+
+    @Test
+    public void allPets_joinBreedsByPrimaryKey() {
+        // The only shape allowed to scan the pets, each one is joined to its breed.
+        String plan = explain(select(PetEntry.PETS_VIEW_NAME, null, null, null, null, null));
+        assertPlanUses(plan, PLAN_PRIMARY_KEY);
+        assertNotSorted(plan);
+    }
+
+    @Test
+    public void catalogList_usesShelterNameIndexInOrder() {
+        String plan = explain(select(PetEntry.PETS_VIEW_NAME,
+                PetProvider.withComputedColumns(CATALOG_PROJECTION),
+                PetProvider.shelterSelection(null), null, PetEntry.SORT_BY_NAME, null));
+        assertPlanUses(plan, "INDEX " + PetEntry.INDEX_SHELTER_NAME);
+        assertPlanUses(plan, "COVERING INDEX " + RecordEntry.INDEX_PET_DATE);
+        assertNotSorted(plan);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void catalogSections_useShelterNameIndexOnly() {
+        String plan = explain(select(PetEntry.TABLE_NAME, PetProvider.SECTIONS_PROJECTION,
+                PetProvider.shelterSelection(null), PetProvider.SECTIONS_ORDER,
+                PetProvider.SECTIONS_ORDER, null));
+        assertPlanUses(plan, "COVERING INDEX " + PetEntry.INDEX_SHELTER_NAME);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void deleteShelterPets_usesShelterRange() {
+        String selection = PetProvider.shelterSelection(null);
+
+        // The IDs of the deleted pets are read first, for the columnar snapshot.
+        assertPlanUses(explain(select(PetEntry.TABLE_NAME, new String[]{PetEntry.COL_ID},
+                selection, null, null, null)), PLAN_SHELTER_RANGE);
+        assertPlanUses(explain("DELETE FROM " + PetEntry.TABLE_NAME + " WHERE " + selection),
+                PLAN_SHELTER_RANGE);
+    }
+
+    @Test
+    public void shelterStatisticsByGender_useShelterGenderWeightIndex() {
+        String plan = explain(select(PetEntry.PETS_VIEW_NAME, STATISTICS_PROJECTION,
+                PetProvider.shelterSelection(SELECTION_BY_GENDER), null, null, null));
+        assertPlanUses(plan, "INDEX " + PetEntry.INDEX_SHELTER_GENDER_WEIGHT);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void statisticsByGender_useGenderWeightIndex() {
+        String plan = explain(select(PetEntry.PETS_VIEW_NAME, STATISTICS_PROJECTION,
+                SELECTION_BY_GENDER, null, null, null));
+        assertPlanUses(plan, "INDEX " + PetEntry.INDEX_GENDER_WEIGHT);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void petById_usesPrimaryKey() {
+        String plan = explain(select(PetEntry.PETS_VIEW_NAME,
+                PetProvider.withComputedColumns(CATALOG_PROJECTION),
+                PetProvider.SELECTION_BY_ID, null, null, null));
+        assertPlanUses(plan, PLAN_PRIMARY_KEY);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void petByIdIncludingArchived_usesPrimaryKeys() {
+        String plan = explain(select(PetEntry.ALL_PETS_VIEW_NAME, null,
+                PetProvider.SELECTION_BY_ID, null, null, null));
+        assertPlanUses(plan, PLAN_PRIMARY_KEY);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void updatePetById_usesPrimaryKey() {
+        String plan = explain(PetStatements.SQL_UPDATE_DETAILS);
+        assertPlanUses(plan, PLAN_PRIMARY_KEY);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void deletePetById_usesPrimaryKey() {
+        String plan = explain("DELETE FROM " + PetEntry.TABLE_NAME +
+                " WHERE " + PetProvider.SELECTION_BY_ID);
+        assertPlanUses(plan, PLAN_PRIMARY_KEY);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void petsByIds_usePrimaryKey() {
+        // The bulk operations and the refresh of the columnar snapshot.
+        String plan = explain(select(PetEntry.PETS_VIEW_NAME, null,
+                PetProvider.idsSelection(3), null, null, null));
+        assertPlanUses(plan, PLAN_PRIMARY_KEY);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void adoptedPetsToArchive_useStatusIndex() {
+        String plan = explain(select(PetEntry.TABLE_NAME, new String[]{PetEntry.COL_ID},
+                PetArchiver.SELECTION_ADOPTED, null, null,
+                String.valueOf(PetArchiver.BATCH_SIZE)));
+        assertPlanUses(plan, "COVERING INDEX " + PetEntry.INDEX_STATUS);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void breedByName_usesUniqueNameIndex() {
+        String plan = explain(select(BreedEntry.TABLE_NAME,
+                new String[]{BreedEntry.COL_ID, BreedEntry.COL_BREED_NAME},
+                BreedDictionary.SELECTION_BY_NAME, null, null, null));
+        assertPlanUses(plan, "INDEX sqlite_autoindex_" + BreedEntry.TABLE_NAME);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void petTimeline_usesTimelineIndexOnly() {
+        String plan = explain(select(EventEntry.TABLE_NAME, null,
+                PetProvider.eventsSelection(null), null, EventEntry.COL_TIMESTAMP, null));
+        assertPlanUses(plan, "COVERING INDEX " + EventEntry.INDEX_PET_TIMELINE);
+        assertNotSorted(plan);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void rollupRanges_usePrimaryKeysInOrder() {
+        assertRollupRange(EventEntry.DAILY_TABLE_NAME, EventEntry.COL_DAY);
+        assertRollupRange(EventEntry.MONTHLY_TABLE_NAME, EventEntry.COL_MONTH);
+    }
+
+    private void assertRollupRange(String table, String bucketColumn) {
+        String plan = explain(select(table, null, PetProvider.rollupsSelection(bucketColumn),
+                null, PetProvider.rollupsSortOrder(bucketColumn), null));
+        assertPlanUses(plan, "INDEX sqlite_autoindex_" + table);
+        assertNotSorted(plan);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void eventSummary_usesRollupPrimaryKeys() {
+        assertPlanUses(explain(PetEventLog.summarySql(false)),
+                "INDEX sqlite_autoindex_" + EventEntry.DAILY_TABLE_NAME);
+
+        String plan = explain(PetEventLog.summarySql(true));
+        assertPlanUses(plan, "INDEX sqlite_autoindex_" + EventEntry.DAILY_TABLE_NAME);
+        assertPlanUses(plan, "INDEX sqlite_autoindex_" + EventEntry.MONTHLY_TABLE_NAME);
+    }
+
+    @Test
+    public void likelyDuplicates_useFingerprintIndexOnly() {
+        String plan = explain(select(PetEntry.TABLE_NAME, new String[]{PetEntry.COL_ID},
+                PetProvider.fingerprintsSelection(3), null, PetEntry.COL_ID,
+                String.valueOf(PetContract.MAX_DUPLICATES)));
+        assertPlanUses(plan, "COVERING INDEX " + PetEntry.INDEX_FINGERPRINT);
+        assertNoScan(plan);
+    }
+
+    @Test
+    public void dedupReport_usesFingerprintIndexOnly() {
+        assertPlanUses(explain(PetProvider.DEDUP_REPORT_SQL),
+                "COVERING INDEX " + PetEntry.INDEX_FINGERPRINT);
+    }
+
+    @Test
+    public void recordsOfPet_useRecordsIndexInOrder() {
+        String plan = explain(select(RecordEntry.TABLE_NAME, null,
+                PetProvider.recordsSelection(RecordEntry.buildPetRecordsUri(1), null), null,
+                PetProvider.RECORDS_SORT_ORDER, null));
+        assertPlanUses(plan, "INDEX " + RecordEntry.INDEX_PET_DATE);
+        assertNotSorted(plan);
+        assertNoScan(plan);
+    }
+
+    /**
+     * Returns the query built like {@link SQLiteDatabase#query} builds it.
+     */
+    private static String select(String table, String[] projection, String selection,
+                                 String groupBy, String orderBy, String limit) {
+        return SQLiteQueryBuilder.buildQueryString(
+                false, table, projection, selection, groupBy, null, orderBy, limit);
+    }
+
+    /**
+     * Returns the details of all the steps of the query plan of the given statement, one per
+     * line. The plan doesn't depend on the values of the arguments, they are left unbound.
+     */
+    private String explain(String sql) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumn));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertPlanUses(String plan, String expected) {
+        assertTrue("Expected a plan using " + expected + " but got [" + plan + "]",
+                plan.contains(expected));
+    }
+
+    private static void assertNotSorted(String plan) {
+        assertFalse("Expected the rows in index order but got [" + plan + "]",
+                plan.contains(PLAN_TEMP_SORT));
+    }
+
+    private static void assertNoScan(String plan) {
+        assertFalse("Expected no full scan but got [" + plan + "]", plan.contains(PLAN_SCAN));
+    }
+}